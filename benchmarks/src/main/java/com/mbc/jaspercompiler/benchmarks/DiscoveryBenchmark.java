@@ -0,0 +1,47 @@
+package com.mbc.jaspercompiler.benchmarks;
+
+import com.mbc.jaspercompiler.models.JasperCompilerAPI;
+import com.mbc.jaspercompiler.models.ReportDiscovery;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Directory scan of the flat source directory: counting only, and collecting the compact path list.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiscoveryBenchmark {
+    @Param({"1000", "10000"})
+    private int reportCount;
+
+    private Path corpusDirectory;
+    private JasperCompilerAPI jasperCompilerAPI;
+
+    @Setup
+    public void setUp() throws IOException {
+        corpusDirectory = ReportCorpusGenerator.writeCorpus(Files.createTempDirectory("jasper-discovery"),
+                ReportCorpusGenerator.ReportSize.SMALL, reportCount, 0);
+        jasperCompilerAPI = new JasperCompilerAPI(corpusDirectory.toString(), corpusDirectory.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ReportCorpusGenerator.deleteCorpus(corpusDirectory);
+    }
+
+    @Benchmark
+    public int countReports() {
+        return jasperCompilerAPI.getTotalJrxmlFiles();
+    }
+
+    @Benchmark
+    public int collectReports() {
+        return new ReportDiscovery(corpusDirectory, false).collect().size();
+    }
+}
@@ -0,0 +1,53 @@
+package com.mbc.jaspercompiler.benchmarks;
+
+import com.mbc.jaspercompiler.models.CompileSummary;
+import com.mbc.jaspercompiler.models.JasperCompilerAPI;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// A full recursive batch (discovery, rewrite, compile, .jasper write) at different parallelism levels.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EndToEndBenchmark {
+    @Param({"1", "2", "4", "8"})
+    private int parallelism;
+
+    @Param({"200"})
+    private int reportCount;
+
+    @Param({"MEDIUM"})
+    private ReportCorpusGenerator.ReportSize reportSize;
+
+    private Path corpusDirectory;
+    private Path logDirectory;
+
+    @Setup
+    public void setUp() throws IOException {
+        corpusDirectory = ReportCorpusGenerator.writeCorpus(Files.createTempDirectory("jasper-end-to-end"), reportSize, reportCount, 2);
+        logDirectory = Files.createTempDirectory("jasper-end-to-end-logs");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ReportCorpusGenerator.deleteCorpus(corpusDirectory);
+        ReportCorpusGenerator.deleteCorpus(logDirectory);
+    }
+
+    @Benchmark
+    public CompileSummary compileBatch() {
+        JasperCompilerAPI jasperCompilerAPI = new JasperCompilerAPI(corpusDirectory.toString());
+        jasperCompilerAPI.setRecursiveMode(true);
+        jasperCompilerAPI.setHighPerformanceMode(true);
+        jasperCompilerAPI.setParallelism(parallelism);
+        jasperCompilerAPI.setLogDirectory(logDirectory);
+        return jasperCompilerAPI.compileAndExportReport();
+    }
+}
@@ -0,0 +1,66 @@
+package com.mbc.jaspercompiler.benchmarks;
+
+import com.mbc.jaspercompiler.models.ReportRewriter;
+import com.mbc.jaspercompiler.models.RewriteRule;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Compares the single-pass byte rewriter with the old line-by-line regex rewrite, and what a full rule set costs on top.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FontNameRewriteBenchmark {
+    @Param({"SMALL", "MEDIUM", "HUGE"})
+    private ReportCorpusGenerator.ReportSize reportSize;
+
+    private byte[] jrxmlContent;
+    private ReportRewriter fontNameRewriter;
+    private ReportRewriter ruleSetRewriter;
+
+    @Setup
+    public void setUp() {
+        jrxmlContent = ReportCorpusGenerator.generateReport("benchmark", reportSize).getBytes(StandardCharsets.UTF_8);
+        fontNameRewriter = new ReportRewriter(List.of(RewriteRule.attribute(null, "fontName", null, "mbc")));
+        ruleSetRewriter = new ReportRewriter(List.of(RewriteRule.parse("fontName=mbc"), RewriteRule.parse("pdfFontName=Helvetica"),
+                RewriteRule.parse("pdfEncoding=Identity-H"), RewriteRule.parse("isPdfEmbedded=true"),
+                RewriteRule.parse("expression:$P{REPORT_LOCALE}=>$P{REPORT_LOCALE}")));
+    }
+
+    @Benchmark
+    public void streamingRewriter(Blackhole blackhole) {
+        ReportRewriter.Result result = fontNameRewriter.rewrite(jrxmlContent);
+        blackhole.consume(result.getLength());
+    }
+
+    @Benchmark
+    public void ruleSetRewriter(Blackhole blackhole) {
+        ReportRewriter.Result result = ruleSetRewriter.rewrite(jrxmlContent);
+        blackhole.consume(result.getLength());
+    }
+
+    @Benchmark
+    public void lineByLineRegex(Blackhole blackhole) throws IOException {
+        StringBuilder changedContent = new StringBuilder(jrxmlContent.length);
+        try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(jrxmlContent), StandardCharsets.UTF_8))) {
+            String readLine;
+            while ((readLine = bufferedReader.readLine()) != null) {
+                if (readLine.contains("fontName")) {
+                    readLine = readLine.replaceAll("fontName=\"[^\"]*\"", "fontName=\"mbc\"");
+                }
+                changedContent.append(readLine.concat("\n"));
+            }
+        }
+        blackhole.consume(changedContent.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
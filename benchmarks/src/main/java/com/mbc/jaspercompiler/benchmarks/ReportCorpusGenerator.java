@@ -0,0 +1,107 @@
+package com.mbc.jaspercompiler.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// Generates compilable jrxml reports of a given size for the benchmarks.
+public class ReportCorpusGenerator {
+    public enum ReportSize {
+        SMALL(10, 1, 1),
+        MEDIUM(100, 5, 3),
+        HUGE(1000, 20, 6);
+
+        private final int textFields;
+        private final int subreports;
+        private final int nestingDepth;
+
+        ReportSize(int textFields, int subreports, int nestingDepth) {
+            this.textFields = textFields;
+            this.subreports = subreports;
+            this.nestingDepth = nestingDepth;
+        }
+    }
+
+    private ReportCorpusGenerator() {
+    }
+
+    public static String generateReport(String reportName, ReportSize reportSize) {
+        int fieldCount = Math.max(1, reportSize.textFields / 10);
+        StringBuilder jrxml = new StringBuilder(reportSize.textFields * 600);
+        jrxml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<jasperReport xmlns=\"http://jasperreports.sourceforge.net/jasperreports\"")
+                .append(" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"")
+                .append(" xsi:schemaLocation=\"http://jasperreports.sourceforge.net/jasperreports http://jasperreports.sourceforge.net/xsd/jasperreport.xsd\"")
+                .append(" name=\"").append(reportName).append("\" pageWidth=\"595\" pageHeight=\"842\" columnWidth=\"555\"")
+                .append(" leftMargin=\"20\" rightMargin=\"20\" topMargin=\"20\" bottomMargin=\"20\">\n")
+                .append("\t<parameter name=\"SUBREPORT_DIR\" class=\"java.lang.String\">\n")
+                .append("\t\t<defaultValueExpression><![CDATA[\"./\"]]></defaultValueExpression>\n")
+                .append("\t</parameter>\n");
+        for (int i = 0; i < fieldCount; i++) {
+            jrxml.append("\t<field name=\"field").append(i).append("\" class=\"java.lang.String\"/>\n");
+        }
+        for (int i = 0; i < fieldCount; i++) {
+            jrxml.append("\t<variable name=\"count").append(i).append("\" class=\"java.lang.Integer\" calculation=\"Count\">\n")
+                    .append("\t\t<variableExpression><![CDATA[$F{field").append(i).append("}]]></variableExpression>\n")
+                    .append("\t</variable>\n");
+        }
+        jrxml.append("\t<detail>\n\t\t<band height=\"800\">\n");
+        appendFrame(jrxml, reportName, reportSize, fieldCount, reportSize.nestingDepth, "\t\t\t");
+        jrxml.append("\t\t</band>\n\t</detail>\n</jasperReport>\n");
+        return jrxml.toString();
+    }
+
+    // Writes count reports spread over a directory tree of the given depth and returns the root
+    public static Path writeCorpus(Path rootDirectory, ReportSize reportSize, int count, int directoryDepth) throws IOException {
+        Files.createDirectories(rootDirectory);
+        for (int i = 0; i < count; i++) {
+            Path directory = rootDirectory;
+            for (int level = 0; level < directoryDepth; level++) {
+                directory = directory.resolve("level" + level + "_" + (i % (level + 2)));
+            }
+            Files.createDirectories(directory);
+            String reportName = "report_" + i;
+            Files.write(directory.resolve(reportName + ".jrxml"), generateReport(reportName, reportSize).getBytes(StandardCharsets.UTF_8));
+        }
+        return rootDirectory;
+    }
+
+    public static void deleteCorpus(Path rootDirectory) throws IOException {
+        if (!Files.exists(rootDirectory)) return;
+        try (Stream<Path> paths = Files.walk(rootDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static void appendFrame(StringBuilder jrxml, String reportName, ReportSize reportSize, int fieldCount, int depth, String indent) {
+        int textFieldsInFrame = reportSize.textFields / reportSize.nestingDepth;
+        int subreportsInFrame = Math.max(1, reportSize.subreports / reportSize.nestingDepth);
+        jrxml.append(indent).append("<frame>\n")
+                .append(indent).append("\t<reportElement x=\"0\" y=\"0\" width=\"555\" height=\"800\"/>\n");
+        for (int i = 0; i < textFieldsInFrame; i++) {
+            int field = i % fieldCount;
+            jrxml.append(indent).append("\t<textField isBlankWhenNull=\"true\">\n")
+                    .append(indent).append("\t\t<reportElement x=\"").append((i / 39) % 5 * 110).append("\" y=\"").append(i % 39 * 20)
+                    .append("\" width=\"100\" height=\"20\"/>\n")
+                    .append(indent).append("\t\t<textElement>\n")
+                    .append(indent).append("\t\t\t<font fontName=\"Arial\" size=\"10\" isBold=\"").append(i % 2 == 0).append("\" pdfFontName=\"Helvetica\"/>\n")
+                    .append(indent).append("\t\t</textElement>\n")
+                    .append(indent).append("\t\t<textFieldExpression><![CDATA[$F{field").append(field)
+                    .append("} == null ? \"-\" : $F{field").append(field).append("}.trim() + \" / \" + $V{count").append(field)
+                    .append("}]]></textFieldExpression>\n")
+                    .append(indent).append("\t</textField>\n");
+        }
+        for (int i = 0; i < subreportsInFrame; i++) {
+            jrxml.append(indent).append("\t<subreport>\n")
+                    .append(indent).append("\t\t<reportElement x=\"0\" y=\"").append(780 - i % 10 * 20).append("\" width=\"555\" height=\"20\"/>\n")
+                    .append(indent).append("\t\t<subreportExpression><![CDATA[$P{SUBREPORT_DIR} + \"").append(reportName)
+                    .append("_sub").append(depth).append("_").append(i).append(".jasper\"]]></subreportExpression>\n")
+                    .append(indent).append("\t</subreport>\n");
+        }
+        if (depth > 1) appendFrame(jrxml, reportName, reportSize, fieldCount, depth - 1, indent + "\t");
+        jrxml.append(indent).append("</frame>\n");
+    }
+}
@@ -0,0 +1,33 @@
+package com.mbc.jaspercompiler.benchmarks;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Parse plus expression compilation of one report, the part that dominates a batch run.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SingleReportCompileBenchmark {
+    @Param({"SMALL", "MEDIUM", "HUGE"})
+    private ReportCorpusGenerator.ReportSize reportSize;
+
+    private byte[] jrxmlContent;
+
+    @Setup
+    public void setUp() {
+        jrxmlContent = ReportCorpusGenerator.generateReport("compile_benchmark", reportSize).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Object compileReport() throws JRException {
+        return JasperCompileManager.compileReport(new ByteArrayInputStream(jrxmlContent));
+    }
+}
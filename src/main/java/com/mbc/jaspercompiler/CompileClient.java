@@ -0,0 +1,155 @@
+package com.mbc.jaspercompiler;
+
+import com.mbc.jaspercompiler.models.CompileServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Talks to a running compile server (CompilerCli --serve), so a build script does not start a new JVM per report.
+// Compiling by path needs the server to see the reports under the same paths, --upload works with any server.
+// Exit codes: 0 all reports compiled, 1 at least one report failed, 2 invalid arguments, 3 no server or the request was refused.
+public class CompileClient {
+    private static final int EXIT_FAILED_REPORTS = 1;
+    private static final int EXIT_USAGE = 2;
+    private static final int EXIT_NO_SERVER = 3;
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    static int run(String[] args) {
+        String host = "127.0.0.1";
+        int port = CompileServer.DEFAULT_PORT;
+        String serverUrl = null;
+        Path uploadFile = null;
+        Path uploadOutputFile = null;
+        boolean shutdown = false;
+        List<String> sourceFiles = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--host":
+                        host = args[++i];
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--url":
+                        serverUrl = args[++i].replaceAll("/+$", "");
+                        break;
+                    case "--upload":
+                        uploadFile = Paths.get(args[++i]);
+                        uploadOutputFile = Paths.get(args[++i]);
+                        break;
+                    case "--shutdown":
+                        shutdown = true;
+                        break;
+                    case "--help":
+                        printUsage();
+                        return 0;
+                    default:
+                        sourceFiles.add(Paths.get(args[i]).toAbsolutePath().toString());
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            System.err.println("Invalid arguments - "+e.getMessage());
+            printUsage();
+            return EXIT_USAGE;
+        }
+        if (!shutdown && uploadFile == null && sourceFiles.isEmpty()) {
+            printUsage();
+            return EXIT_USAGE;
+        }
+        // An IPv6 address needs brackets in a URL
+        if (serverUrl == null) serverUrl = "http://"+(host.contains(":") ? "["+host+"]" : host)+":"+port;
+        try {
+            if (shutdown) {
+                int responseCode = post(serverUrl+"/shutdown", new byte[0]).getResponseCode();
+                if (responseCode == 401) System.err.println("Compile server requires its access token in "+CompileServer.ACCESS_TOKEN_VARIABLE);
+                return responseCode == 200 ? 0 : EXIT_NO_SERVER;
+            }
+            if (uploadFile != null) return upload(serverUrl, uploadFile, uploadOutputFile);
+            return compile(serverUrl, sourceFiles);
+        } catch (IOException e) {
+            System.err.println("Compile server not reachable on "+serverUrl+" - "+e.getMessage());
+            return EXIT_NO_SERVER;
+        }
+    }
+
+    private static int compile(String serverUrl, List<String> sourceFiles) throws IOException {
+        HttpURLConnection connection = post(serverUrl+"/compile", String.join("\n", sourceFiles).getBytes(StandardCharsets.UTF_8));
+        if (connection.getResponseCode() != 200) return rejected(connection);
+        boolean failed = false;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("FAILED\t")) {
+                    failed = true;
+                    System.err.println(line);
+                } else {
+                    System.out.println(line);
+                }
+            }
+        }
+        return failed ? EXIT_FAILED_REPORTS : 0;
+    }
+
+    private static int upload(String serverUrl, Path uploadFile, Path uploadOutputFile) throws IOException {
+        String reportFilename = URLEncoder.encode(uploadFile.getFileName().toString(), StandardCharsets.UTF_8);
+        HttpURLConnection connection = post(serverUrl+"/compile-jrxml?name="+reportFilename, Files.readAllBytes(uploadFile));
+        if (connection.getResponseCode() != 200 && connection.getResponseCode() != 422) return rejected(connection);
+        if (connection.getResponseCode() != 200) {
+            try (InputStream errorStream = connection.getErrorStream()) {
+                System.err.println("FAILED\t"+uploadFile+"\t"+(errorStream == null ? "" : new String(errorStream.readAllBytes(), StandardCharsets.UTF_8).trim()));
+            }
+            return EXIT_FAILED_REPORTS;
+        }
+        try (InputStream jasperStream = connection.getInputStream()) {
+            Files.write(uploadOutputFile, jasperStream.readAllBytes());
+        }
+        System.out.println("SUCCESS\t"+uploadFile+" -> "+uploadOutputFile);
+        return 0;
+    }
+
+    // The request never reached a compile, a missing token or a server that is not ours
+    private static int rejected(HttpURLConnection connection) throws IOException {
+        if (connection.getResponseCode() == 401) {
+            System.err.println("Compile server requires its access token in "+CompileServer.ACCESS_TOKEN_VARIABLE);
+        } else {
+            System.err.println("Compile server refused the request - "+connection.getResponseCode()+" "+connection.getResponseMessage());
+        }
+        return EXIT_NO_SERVER;
+    }
+
+    private static HttpURLConnection post(String url, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        String accessToken = System.getenv(CompileServer.ACCESS_TOKEN_VARIABLE);
+        if (accessToken != null && !accessToken.isBlank()) connection.setRequestProperty(CompileServer.ACCESS_TOKEN_HEADER, accessToken);
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream requestBody = connection.getOutputStream()) {
+            requestBody.write(body);
+        }
+        return connection;
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: CompileClient [--host <address>] [--port <n> | --url <http://host:port>] <jrxml file>...\n"
+                + "       CompileClient [--host <address>] [--port <n> | --url <http://host:port>] --upload <jrxml file> <jasper file>\n"
+                + "       CompileClient [--host <address>] [--port <n> | --url <http://host:port>] --shutdown\n"
+                + "The access token of the server, if it has one, is read from "+CompileServer.ACCESS_TOKEN_VARIABLE+".");
+    }
+}
@@ -0,0 +1,469 @@
+package com.mbc.jaspercompiler;
+
+import com.mbc.jaspercompiler.models.CompileListener;
+import com.mbc.jaspercompiler.models.CompileLogFormat;
+import com.mbc.jaspercompiler.models.CompileLogWriter;
+import com.mbc.jaspercompiler.models.CompileServer;
+import com.mbc.jaspercompiler.models.CompileSummary;
+import com.mbc.jaspercompiler.models.DeduplicationMode;
+import com.mbc.jaspercompiler.models.JasperCompilerAPI;
+import com.mbc.jaspercompiler.models.ReportCompileStatus;
+import com.mbc.jaspercompiler.models.ReportWatcher;
+import com.mbc.jaspercompiler.models.RewriteRule;
+import com.mbc.jaspercompiler.models.ScheduleOrder;
+import com.mbc.jaspercompiler.models.ShardStrategy;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Headless entry point for build servers, no JavaFX toolkit is started.
+// Exit codes: 0 all reports compiled, 1 at least one report failed, 2 invalid arguments.
+public class CompilerCli {
+    private static final int EXIT_FAILED_REPORTS = 1;
+    private static final int EXIT_USAGE = 2;
+    private static final long SHUTDOWN_WAIT_SECONDS = 30;
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    static int run(String[] args) {
+        String sourceDirectory = null;
+        String outputDirectory = null;
+        String fontName = "mbc";
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        boolean recursiveMode = false;
+        boolean incrementalMode = false;
+        boolean dependencyMode = false;
+        boolean affectToOriginalJrxmlFiles = false;
+        Path logDirectory = CompileLogWriter.defaultLogDirectory();
+        CompileLogFormat logFormat = CompileLogFormat.TEXT;
+        boolean watchMode = false;
+        boolean serveMode = false;
+        int port = CompileServer.DEFAULT_PORT;
+        String bindAddress = null;
+        long parentPid = -1;
+        int localShardWorkers = 0;
+        List<String> shardWorkerUrls = new ArrayList<>();
+        ShardStrategy shardStrategy = ShardStrategy.SIZE_BALANCED;
+        ScheduleOrder scheduleOrder = ScheduleOrder.DISCOVERY;
+        DeduplicationMode deduplicationMode = DeduplicationMode.COPY;
+        long debounceMillis = 300;
+        int slowestReportCount = 20;
+        int expressionBatchSize = 1;
+        Path prometheusMetricsFile = null;
+        boolean validationMode = false;
+        boolean validateOnly = false;
+        boolean strictReferences = false;
+        Path bundleFile = null;
+        boolean bundleCompression = false;
+        boolean resumeMode = true;
+        long reportTimeoutMillis = 0;
+        boolean adaptiveConcurrency = false;
+        int minParallelism = 1;
+        int maxParallelism = Runtime.getRuntime().availableProcessors();
+        boolean forkedMode = false;
+        int recycleAfterReports = 500;
+        int recycleAfterHeapMegabytes = 256;
+        List<String> rewriteSpecs = new ArrayList<>();
+        List<RewriteRule> rewriteRules = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--source":
+                        sourceDirectory = args[++i];
+                        break;
+                    case "--output":
+                        outputDirectory = args[++i];
+                        break;
+                    case "--font":
+                        fontName = args[++i];
+                        break;
+                    case "--parallelism":
+                        parallelism = Integer.parseInt(args[++i]);
+                        break;
+                    case "--batch-size":
+                        expressionBatchSize = Integer.parseInt(args[++i]);
+                        break;
+                    case "--recursive":
+                        recursiveMode = true;
+                        break;
+                    case "--incremental":
+                        incrementalMode = true;
+                        break;
+                    case "--dependencies":
+                        dependencyMode = true;
+                        break;
+                    case "--validate":
+                        validationMode = true;
+                        break;
+                    case "--validate-only":
+                        validateOnly = true;
+                        break;
+                    case "--strict-references":
+                        strictReferences = true;
+                        break;
+                    case "--bundle":
+                        bundleFile = Paths.get(args[++i]);
+                        break;
+                    case "--bundle-compress":
+                        bundleCompression = true;
+                        break;
+                    case "--report-timeout":
+                        reportTimeoutMillis = Long.parseLong(args[++i]);
+                        break;
+                    case "--adaptive":
+                        adaptiveConcurrency = true;
+                        break;
+                    case "--min-parallelism":
+                        minParallelism = Integer.parseInt(args[++i]);
+                        break;
+                    case "--max-parallelism":
+                        maxParallelism = Integer.parseInt(args[++i]);
+                        break;
+                    case "--fork":
+                        forkedMode = true;
+                        break;
+                    case "--recycle-after":
+                        recycleAfterReports = Integer.parseInt(args[++i]);
+                        break;
+                    case "--recycle-heap":
+                        recycleAfterHeapMegabytes = Integer.parseInt(args[++i]);
+                        break;
+                    case "--rewrite":
+                        rewriteSpecs.add(args[++i]);
+                        break;
+                    case "--rewrite-file":
+                        // One rule per line, blank lines and lines starting with # are skipped
+                        for (String line : Files.readAllLines(Paths.get(args[++i]), StandardCharsets.UTF_8)) {
+                            if (!line.isBlank() && !line.startsWith("#")) rewriteSpecs.add(line);
+                        }
+                        break;
+                    case "--no-resume":
+                        resumeMode = false;
+                        break;
+                    case "--affect-originals":
+                        affectToOriginalJrxmlFiles = true;
+                        break;
+                    case "--log-dir":
+                        logDirectory = Paths.get(args[++i]);
+                        break;
+                    case "--log-format":
+                        logFormat = parseLogFormat(args[++i]);
+                        break;
+                    case "--watch":
+                        watchMode = true;
+                        break;
+                    case "--serve":
+                        serveMode = true;
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--bind":
+                        bindAddress = args[++i];
+                        break;
+                    case "--parent-pid":
+                        // Given to locally started shard workers, they stop when the coordinator is gone
+                        parentPid = Long.parseLong(args[++i]);
+                        break;
+                    case "--shard-workers":
+                        localShardWorkers = Integer.parseInt(args[++i]);
+                        break;
+                    case "--workers":
+                        shardWorkerUrls.addAll(Arrays.asList(args[++i].split(",")));
+                        break;
+                    case "--shard-strategy":
+                        shardStrategy = parseShardStrategy(args[++i]);
+                        break;
+                    case "--schedule":
+                        scheduleOrder = parseScheduleOrder(args[++i]);
+                        break;
+                    case "--dedup":
+                        deduplicationMode = parseDeduplicationMode(args[++i]);
+                        break;
+                    case "--debounce":
+                        debounceMillis = Long.parseLong(args[++i]);
+                        break;
+                    case "--slowest":
+                        slowestReportCount = Integer.parseInt(args[++i]);
+                        break;
+                    case "--prometheus-file":
+                        prometheusMetricsFile = Paths.get(args[++i]);
+                        break;
+                    case "--help":
+                        printUsage();
+                        return 0;
+                    default:
+                        System.err.println("Unknown option "+args[i]);
+                        printUsage();
+                        return EXIT_USAGE;
+                }
+            }
+            rewriteSpecs.forEach(rewriteSpec -> rewriteRules.add(RewriteRule.parse(rewriteSpec)));
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException | IOException e) {
+            System.err.println("Invalid arguments - "+e.getMessage());
+            printUsage();
+            return EXIT_USAGE;
+        }
+        // Nothing is written when only validating, the output directory is just a placeholder then
+        if (validateOnly && outputDirectory == null) outputDirectory = sourceDirectory;
+        if (bundleFile != null) {
+            if (serveMode || localShardWorkers > 0 || !shardWorkerUrls.isEmpty()) {
+                System.err.println("--bundle cannot be combined with --serve or shard workers");
+                printUsage();
+                return EXIT_USAGE;
+            }
+            // Only the compile manifest of incremental runs goes there
+            if (outputDirectory == null) outputDirectory = bundleFile.toAbsolutePath().getParent().toString();
+        }
+        if (!serveMode && (sourceDirectory == null || (!recursiveMode && outputDirectory == null))) {
+            System.err.println("--source is required, and --output unless --recursive is used");
+            printUsage();
+            return EXIT_USAGE;
+        }
+        if (serveMode) {
+            // Without --output every .jasper is written next to its jrxml, as in recursive mode
+            recursiveMode = recursiveMode || outputDirectory == null;
+            if (sourceDirectory == null) sourceDirectory = ".";
+        }
+
+        JasperCompilerAPI jasperCompilerAPI = new JasperCompilerAPI(sourceDirectory, recursiveMode ? null : outputDirectory);
+        jasperCompilerAPI.setFontName(fontName);
+        jasperCompilerAPI.setRewriteRules(rewriteRules);
+        jasperCompilerAPI.setHighPerformanceMode(true);
+        jasperCompilerAPI.setParallelism(parallelism);
+        jasperCompilerAPI.setExpressionBatchSize(expressionBatchSize);
+        jasperCompilerAPI.setRecursiveMode(recursiveMode);
+        // Watch mode relies on the manifest to ignore events for files that did not really change
+        jasperCompilerAPI.setIncrementalMode(incrementalMode || watchMode);
+        jasperCompilerAPI.setDependencyMode(dependencyMode);
+        jasperCompilerAPI.setAffectToOriginalJrxmlFiles(affectToOriginalJrxmlFiles);
+        jasperCompilerAPI.setLogDirectory(logDirectory);
+        jasperCompilerAPI.setLogFormat(logFormat);
+        jasperCompilerAPI.setSlowestReportCount(slowestReportCount);
+        jasperCompilerAPI.setPrometheusMetricsFile(prometheusMetricsFile);
+        jasperCompilerAPI.setValidationMode(validationMode);
+        jasperCompilerAPI.setValidateOnly(validateOnly);
+        jasperCompilerAPI.setStrictReferences(strictReferences);
+        jasperCompilerAPI.setBundleFile(bundleFile, bundleCompression);
+        jasperCompilerAPI.setResumeMode(resumeMode);
+        jasperCompilerAPI.setReportTimeoutMillis(reportTimeoutMillis);
+        jasperCompilerAPI.setAdaptiveConcurrency(adaptiveConcurrency, minParallelism, maxParallelism);
+        jasperCompilerAPI.setScheduleOrder(scheduleOrder);
+        jasperCompilerAPI.setDeduplicationMode(deduplicationMode);
+        jasperCompilerAPI.setForkedMode(forkedMode, recycleAfterReports, recycleAfterHeapMegabytes);
+        if (serveMode) {
+            return serve(jasperCompilerAPI, bindAddress, port, parentPid);
+        }
+        jasperCompilerAPI.addCompileListener(new ConsoleCompileListener());
+        // Ctrl+C or a service stop cancels the run and waits for the running compiles, the manifest and the journal
+        CountDownLatch compileFinished = new CountDownLatch(1);
+        AtomicReference<LocalShardWorkers> startedShardWorkers = new AtomicReference<>();
+        Thread cancelOnShutdown = new Thread(() -> {
+            jasperCompilerAPI.getCompileControl().cancel();
+            try {
+                compileFinished.await(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // The JVM may exit before the run gets to close them
+            LocalShardWorkers shardWorkers = startedShardWorkers.get();
+            if (shardWorkers != null) shardWorkers.close();
+        });
+        Runtime.getRuntime().addShutdownHook(cancelOnShutdown);
+        CompileSummary compileSummary;
+        try {
+            if (localShardWorkers > 0 && !validateOnly) {
+                // The workers compile whatever they are sent, the up-to-date check is done here
+                List<String> workerArguments = new ArrayList<>(List.of("--font", fontName,
+                        "--parallelism", String.valueOf(Math.max(1, parallelism / localShardWorkers)),
+                        "--batch-size", String.valueOf(expressionBatchSize), "--log-format", logFormat == CompileLogFormat.JSON_LINES ? "jsonl" : "text"));
+                if (!recursiveMode) workerArguments.addAll(List.of("--output", outputDirectory));
+                if (affectToOriginalJrxmlFiles) workerArguments.add("--affect-originals");
+                if (validationMode) workerArguments.add("--validate");
+                if (strictReferences) workerArguments.add("--strict-references");
+                if (reportTimeoutMillis > 0) workerArguments.addAll(List.of("--report-timeout", String.valueOf(reportTimeoutMillis)));
+                rewriteSpecs.forEach(rewriteSpec -> workerArguments.addAll(List.of("--rewrite", rewriteSpec)));
+                if (deduplicationMode != DeduplicationMode.COPY) {
+                    workerArguments.addAll(List.of("--dedup", deduplicationMode == DeduplicationMode.OFF ? "off" : "link"));
+                }
+                if (forkedMode) {
+                    workerArguments.addAll(List.of("--fork", "--recycle-after", String.valueOf(recycleAfterReports),
+                            "--recycle-heap", String.valueOf(recycleAfterHeapMegabytes)));
+                }
+                if (adaptiveConcurrency) {
+                    workerArguments.addAll(List.of("--adaptive", "--min-parallelism", String.valueOf(minParallelism),
+                            "--max-parallelism", String.valueOf(Math.max(1, maxParallelism / localShardWorkers))));
+                }
+                try (LocalShardWorkers shardWorkers = LocalShardWorkers.start(localShardWorkers, workerArguments, logDirectory)) {
+                    startedShardWorkers.set(shardWorkers);
+                    jasperCompilerAPI.setShardWorkers(shardWorkers.getWorkerUrls(), shardStrategy, shardWorkers.getAccessToken());
+                    compileSummary = jasperCompilerAPI.compileAndExportReport();
+                } catch (IOException e) {
+                    System.err.println("Failed to start shard workers - "+e.getMessage());
+                    return EXIT_FAILED_REPORTS;
+                }
+                jasperCompilerAPI.setShardWorkers(List.of(), shardStrategy, null);
+            } else {
+                jasperCompilerAPI.setShardWorkers(shardWorkerUrls, shardStrategy, System.getenv(CompileServer.ACCESS_TOKEN_VARIABLE));
+                compileSummary = jasperCompilerAPI.compileAndExportReport();
+            }
+        } finally {
+            // Also when the run ended with an error, the shutdown hook must not wait for it
+            compileFinished.countDown();
+        }
+        if (watchMode) {
+            return watch(jasperCompilerAPI, debounceMillis);
+        }
+        return compileSummary.hasFailures() ? EXIT_FAILED_REPORTS : 0;
+    }
+
+    private static int watch(JasperCompilerAPI jasperCompilerAPI, long debounceMillis) {
+        ReportWatcher reportWatcher = new ReportWatcher(jasperCompilerAPI, debounceMillis);
+        Runtime.getRuntime().addShutdownHook(new Thread(reportWatcher::close));
+        try {
+            reportWatcher.run();
+            return 0;
+        } catch (IOException e) {
+            System.err.println("Failed to watch "+jasperCompilerAPI.getJrxmlFilesDirectory()+" - "+e.getMessage());
+            return EXIT_FAILED_REPORTS;
+        }
+    }
+
+    private static int serve(JasperCompilerAPI engineTemplate, String bindAddress, int port, long parentPid) {
+        try {
+            InetAddress serverAddress = bindAddress == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bindAddress);
+            CompileServer compileServer = new CompileServer(engineTemplate, serverAddress, port);
+            compileServer.setAccessToken(System.getenv(CompileServer.ACCESS_TOKEN_VARIABLE));
+            Runtime.getRuntime().addShutdownHook(new Thread(compileServer::close));
+            if (parentPid >= 0) {
+                // Also when the coordinator was killed and never sent /shutdown
+                Optional<ProcessHandle> parentProcess = ProcessHandle.of(parentPid);
+                if (parentProcess.isEmpty()) return 0;
+                parentProcess.get().onExit().thenRun(() -> {
+                    System.out.println("Coordinator process "+parentPid+" is gone, stopping...");
+                    compileServer.close();
+                });
+            }
+            compileServer.start();
+            compileServer.warmUp();
+            compileServer.awaitShutdown();
+            return 0;
+        } catch (IOException e) {
+            System.err.println("Failed to start compile server on port "+port+" - "+e.getMessage());
+            return EXIT_FAILED_REPORTS;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    // A typo in a value is reported as invalid arguments, not run with the default
+    private static CompileLogFormat parseLogFormat(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "text":
+                return CompileLogFormat.TEXT;
+            case "jsonl":
+                return CompileLogFormat.JSON_LINES;
+            default:
+                throw new IllegalArgumentException("Unknown --log-format "+value+", use text or jsonl");
+        }
+    }
+
+    private static ShardStrategy parseShardStrategy(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "size":
+                return ShardStrategy.SIZE_BALANCED;
+            case "hash":
+                return ShardStrategy.HASH;
+            default:
+                throw new IllegalArgumentException("Unknown --shard-strategy "+value+", use size or hash");
+        }
+    }
+
+    private static ScheduleOrder parseScheduleOrder(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "discovery":
+                return ScheduleOrder.DISCOVERY;
+            case "longest":
+                return ScheduleOrder.LONGEST_FIRST;
+            case "recent":
+                return ScheduleOrder.RECENT_FIRST;
+            default:
+                throw new IllegalArgumentException("Unknown --schedule "+value+", use discovery, longest or recent");
+        }
+    }
+
+    private static DeduplicationMode parseDeduplicationMode(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "off":
+                return DeduplicationMode.OFF;
+            case "copy":
+                return DeduplicationMode.COPY;
+            case "link":
+                return DeduplicationMode.HARD_LINK;
+            default:
+                throw new IllegalArgumentException("Unknown --dedup "+value+", use off, copy or link");
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: CompilerCli --source <jrxml dir> [--output <jasper dir>] [--font <name>] [--parallelism <n>]\n"
+                + "                   [--batch-size <n>] [--recursive] [--incremental] [--dependencies] [--affect-originals]\n"
+                + "                   [--log-dir <dir>] [--log-format text|jsonl] [--watch [--debounce <ms>]]\n"
+                + "                   [--slowest <n>] [--prometheus-file <file>] [--validate | --validate-only] [--strict-references]\n"
+                + "                   [--bundle <file> [--bundle-compress]] [--no-resume] [--report-timeout <ms>]\n"
+                + "                   [--adaptive [--min-parallelism <n>] [--max-parallelism <n>]]\n"
+                + "                   [--fork [--recycle-after <reports>] [--recycle-heap <mb>]] [--schedule discovery|longest|recent]\n"
+                + "                   [--rewrite <rule>]... [--rewrite-file <file>] [--dedup off|copy|link]\n"
+                + "                   [--shard-workers <n> | --workers <url,url...>] [--shard-strategy size|hash]\n"
+                + "       CompilerCli --serve [--port <n>] [--bind <address>] [--output <jasper dir>] [compile options]\n"
+                + "Set "+CompileServer.ACCESS_TOKEN_VARIABLE+" to make --serve require that token and to send it to --workers.");
+    }
+
+    private static class ConsoleCompileListener implements CompileListener {
+        private final AtomicInteger finishedFiles = new AtomicInteger();
+        private volatile int totalFiles;
+
+        @Override
+        public void onCompileStarted(int totalFiles) {
+            this.totalFiles = totalFiles;
+            finishedFiles.set(0);
+            System.out.println(totalFiles > 0 ? "Compiling "+totalFiles+" reports..." : "Compiling reports as they are found...");
+        }
+
+        @Override
+        public void onTotalFilesChanged(int totalFiles) {
+            this.totalFiles = totalFiles;
+        }
+
+        @Override
+        public void onReportCompiled(Path sourceFile, ReportCompileStatus status, String errorMessage) {
+            String line = "["+finishedFiles.incrementAndGet()+"/"+totalFiles+"] "+status+" "+sourceFile;
+            if (status == ReportCompileStatus.FAILED) {
+                System.err.println(line+" - "+errorMessage);
+            } else {
+                System.out.println(line);
+            }
+        }
+
+        @Override
+        public void onCompileFinished(CompileSummary summary) {
+            System.out.println(summary);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.mbc.jaspercompiler;
+
+import com.mbc.jaspercompiler.models.CompileServer;
+import com.mbc.jaspercompiler.models.JavaCommand;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Starts compile servers (CompilerCli --serve) as child JVMs on this machine for sharded compiles,
+// and stops them again on close. Every worker logs into its own worker-N folder under the log directory.
+// The workers only take requests with a token made up for this run, other local processes cannot use them.
+class LocalShardWorkers implements AutoCloseable {
+    private static final long STARTUP_TIMEOUT_MILLIS = 120_000;
+    private final String accessToken = UUID.randomUUID().toString();
+    private final List<Process> workerProcesses = new ArrayList<>();
+    private final List<String> workerUrls = new ArrayList<>();
+    private boolean closed;
+
+    static LocalShardWorkers start(int workerCount, List<String> workerArguments, Path logDirectory) throws IOException {
+        LocalShardWorkers localShardWorkers = new LocalShardWorkers();
+        try {
+            for (int i = 1; i <= workerCount; i++) {
+                localShardWorkers.startWorker(i, workerArguments, logDirectory.resolve("worker-"+i));
+            }
+            localShardWorkers.awaitWorkers();
+        } catch (IOException e) {
+            localShardWorkers.close();
+            throw e;
+        }
+        return localShardWorkers;
+    }
+
+    List<String> getWorkerUrls() {
+        return workerUrls;
+    }
+
+    String getAccessToken() {
+        return accessToken;
+    }
+
+    private void startWorker(int workerNumber, List<String> workerArguments, Path workerLogDirectory) throws IOException {
+        Files.createDirectories(workerLogDirectory);
+        int port = findFreePort();
+        List<String> command = new ArrayList<>(JavaCommand.of(CompilerCli.class));
+        command.add("--serve");
+        command.add("--port");
+        command.add(String.valueOf(port));
+        command.add("--log-dir");
+        command.add(workerLogDirectory.toString());
+        command.add("--parent-pid");
+        command.add(String.valueOf(ProcessHandle.current().pid()));
+        command.addAll(workerArguments);
+        ProcessBuilder processBuilder = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(workerLogDirectory.resolve("worker.out").toFile());
+        processBuilder.environment().put(CompileServer.ACCESS_TOKEN_VARIABLE, accessToken);
+        Process workerProcess = processBuilder.start();
+        workerProcesses.add(workerProcess);
+        workerUrls.add("http://127.0.0.1:"+port);
+        System.out.println("Started shard worker "+workerNumber+" on port "+port);
+    }
+
+    private void awaitWorkers() throws IOException {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        for (int i = 0; i < workerUrls.size(); i++) {
+            while (!isUp(workerUrls.get(i))) {
+                if (!workerProcesses.get(i).isAlive()) throw new IOException("Shard worker "+(i + 1)+" exited during startup");
+                if (System.currentTimeMillis() > deadline) throw new IOException("Shard worker "+(i + 1)+" did not start in time");
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for shard workers");
+                }
+            }
+        }
+    }
+
+    // Called by the run and by the shutdown hook, whichever comes first stops the workers
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        for (String workerUrl : workerUrls) {
+            request(workerUrl+"/shutdown", "POST", accessToken);
+        }
+        for (Process workerProcess : workerProcesses) {
+            try {
+                if (!workerProcess.waitFor(10, TimeUnit.SECONDS)) workerProcess.destroyForcibly();
+            } catch (InterruptedException e) {
+                workerProcess.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static int findFreePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    private static boolean isUp(String workerUrl) {
+        return request(workerUrl+"/status", "GET", null);
+    }
+
+    private static boolean request(String url, String method, String accessToken) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestMethod(method);
+            if (accessToken != null) connection.setRequestProperty(CompileServer.ACCESS_TOKEN_HEADER, accessToken);
+            connection.setConnectTimeout(1000);
+            connection.setReadTimeout(5000);
+            if ("POST".equals(method)) {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(0);
+                connection.getOutputStream().close();
+            }
+            try (InputStream response = connection.getInputStream()) {
+                response.readAllBytes();
+            }
+            return connection.getResponseCode() == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
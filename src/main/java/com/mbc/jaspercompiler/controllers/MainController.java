@@ -1,6 +1,11 @@
 package com.mbc.jaspercompiler.controllers;
 
 import com.mbc.jaspercompiler.Main;
+import com.mbc.jaspercompiler.models.CompileControl;
+import com.mbc.jaspercompiler.models.CompileListener;
+import com.mbc.jaspercompiler.models.CompileLogWriter;
+import com.mbc.jaspercompiler.models.CompileProgress;
+import com.mbc.jaspercompiler.models.CompileSummary;
 import com.mbc.jaspercompiler.models.JasperCompilerAPI;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
@@ -19,8 +24,10 @@ import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class MainController {
+public class MainController implements CompileListener {
     @FXML
     private Label jrxmlFilePathLabel;
     @FXML
@@ -60,9 +67,11 @@ public class MainController {
     private File selectedJapserDirectory;
 
     private JasperCompilerAPI jasperCompilerAPI;
+    private final AtomicReference<CompileProgress> pendingProgress = new AtomicReference<>();
 
     private boolean highPerformanceMode;
     private boolean recursiveMode;
+    private volatile boolean compileRunning;
 
     @FXML
     public void clickOnJrxmlFileChooser() {
@@ -235,7 +244,11 @@ public class MainController {
                 totalLabelWrapper, successLabelWrapper, failLabelWrapper, highPerformanceModeLabelWrapper);
 
 
-        Label instructionLabel = new Label("All the logs, errors and fail report list are saved under C:\\ProgramData\\JasperReportCompileLogs.txt C:\\ProgramData\\JasperReportCompileErrors.txt C:\\ProgramData\\JasperReportCompileFailList.txt " +
+        Path logDirectory = CompileLogWriter.defaultLogDirectory();
+        Label instructionLabel = new Label("All the logs, errors and fail report list are saved under "
+                +logDirectory.resolve(CompileLogWriter.COMPILE_REPORT_LOG_FILENAME)+" "
+                +logDirectory.resolve(CompileLogWriter.COMPILE_ERROR_LOG_FILENAME)+" "
+                +logDirectory.resolve(CompileLogWriter.COMPILE_FAIL_LIST_LOG_FILENAME)+" " +
                 "----- Developed by MBC Software Development Centre(Thant Zin Aung) - 2024");
         instructionLabel.setWrapText(true);
         instructionLabel.setStyle("-fx-font-size: 12px; -fx-text-fill: white;");
@@ -245,13 +258,39 @@ public class MainController {
         cancelButton.getStyleClass().add("cancel-button");
         cancelButton.setStyle("-fx-text-fill: white; -fx-font-size: 15px; -fx-font-weight: bold; -fx-background-color: #497075; " +
                 "-fx-background-radius: 3px; ");
+        Button pauseButton = new Button("PAUSE");
+        pauseButton.setPrefWidth(200);
+        pauseButton.setPrefHeight(42);
+        pauseButton.getStyleClass().add("cancel-button");
+        pauseButton.setStyle("-fx-text-fill: white; -fx-font-size: 15px; -fx-font-weight: bold; -fx-background-color: #497075; " +
+                "-fx-background-radius: 3px; ");
+        pauseButton.setOnMouseClicked(event-> {
+            if (!compileRunning) return;
+            CompileControl compileControl = jasperCompilerAPI.getCompileControl();
+            if (compileControl.isPaused()) {
+                compileControl.resume();
+                pauseButton.setText("PAUSE");
+                compilingLabel.setText("compiling reports...");
+            } else {
+                compileControl.pause();
+                pauseButton.setText("RESUME");
+                compilingLabel.setText("paused, finishing running reports...");
+            }
+        });
+        // The running reports finish, the rest is dropped and the app closes once the summary is written
         cancelButton.setOnMouseClicked(event-> {
-            System.exit(0);
-            Platform.exit();
+            if (!compileRunning) {
+                Platform.exit();
+                return;
+            }
+            jasperCompilerAPI.getCompileControl().cancel();
+            cancelButton.setDisable(true);
+            pauseButton.setDisable(true);
+            compilingLabel.setText("cancelling, finishing running reports...");
         });
 
 
-        rightContentWrapper.getChildren().addAll(instructionLabel, cancelButton);
+        rightContentWrapper.getChildren().addAll(instructionLabel, pauseButton, cancelButton);
 
         root.getChildren().addAll(leftContentWrapper, rightContentWrapper);
         Scene scene = new Scene(root);
@@ -265,15 +304,16 @@ public class MainController {
     private void compileReport() {
         initializeBeforeCompile();
         if (recursiveMode) {
-            jasperCompilerAPI = new JasperCompilerAPI(selectedJrxmlDirectory.getAbsolutePath(), null,
-                    compilingLabel, currentCompiledLabel, totalCompileIndexLabel, compileFilenameLabel, totalCompileLabel, successCompileLabel, failCompileLabel, progressBar, percenLabel);
+            jasperCompilerAPI = new JasperCompilerAPI(selectedJrxmlDirectory.getAbsolutePath(), null);
         } else {
-            jasperCompilerAPI = new JasperCompilerAPI(selectedJrxmlDirectory.getAbsolutePath(), selectedJapserDirectory.getAbsolutePath(),
-                    compilingLabel, currentCompiledLabel, totalCompileIndexLabel, compileFilenameLabel, totalCompileLabel, successCompileLabel, failCompileLabel, progressBar, percenLabel);
+            jasperCompilerAPI = new JasperCompilerAPI(selectedJrxmlDirectory.getAbsolutePath(), selectedJapserDirectory.getAbsolutePath());
         }
+        jasperCompilerAPI.addCompileListener(this);
         jasperCompilerAPI.setFontName(fontNameTextField.getText().trim());
         jasperCompilerAPI.setHighPerformanceMode(highPerformanceMode);
+        jasperCompilerAPI.setParallelism(highPerformanceMode ? Runtime.getRuntime().availableProcessors() : 1);
         jasperCompilerAPI.setRecursiveMode(recursiveMode);
+        compileRunning = true;
         Thread reportCompilerThread = new Thread(() -> {
             jasperCompilerAPI.compileAndExportReport();
         });
@@ -281,6 +321,42 @@ public class MainController {
         reportCompilerThread.start();
     }
 
+    @Override
+    public void onCompileStarted(int totalFiles) {
+        Platform.runLater(() -> compilingLabel.setText("compiling reports..."));
+    }
+
+    // Only the newest snapshot is kept, so a fast run never queues up stale UI updates
+    @Override
+    public void onProgress(CompileProgress progress) {
+        if (pendingProgress.getAndSet(progress) == null) {
+            Platform.runLater(this::updateUI);
+        }
+    }
+
+    @Override
+    public void onCompileFinished(CompileSummary summary) {
+        compileRunning = false;
+        if (summary.isCancelled()) {
+            Platform.runLater(Platform::exit);
+            return;
+        }
+        Platform.runLater(()->compilingLabel.setText("all reports compiled successfully..."));
+    }
+
+    private void updateUI() {
+        CompileProgress progress = pendingProgress.getAndSet(null);
+        if (progress == null) return;
+        currentCompiledLabel.setText(String.valueOf(progress.getCurrentCount()));
+        totalCompileIndexLabel.setText(String.valueOf(progress.getTotalFiles()));
+        compileFilenameLabel.setText(progress.getCurrentFilename());
+        totalCompileLabel.setText(String.valueOf(progress.getTotalFiles()));
+        successCompileLabel.setText(String.valueOf(progress.getSuccessCount()));
+        failCompileLabel.setText(String.valueOf(progress.getFailCount()));
+        percenLabel.setText(String.valueOf(progress.getPercentage()).concat("%"));
+        progressBar.setProgress(progress.getFraction());
+    }
+
     @FXML
     public void clickOnCloseButton() {
         Platform.exit();
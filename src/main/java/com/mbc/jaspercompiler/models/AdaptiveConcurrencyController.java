@@ -0,0 +1,160 @@
+package com.mbc.jaspercompiler.models;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Moves the number of concurrent compiles between minWorkers and maxWorkers while a run goes on.
+// Every sample looks at the heap that is still in use after the last collection, the share of wall time spent in GC
+// and the system load per core:
+//   heap after GC over 80% or GC over 25%    halve, the JVM is close to an OutOfMemoryError
+//   heap after GC over 65% or GC over 10%    hold
+//   load per core over 1                     one less, the cores are already oversubscribed
+//   otherwise                                one more, but not right after a step down
+// Every change is printed and written to the decision log in the log directory at the end of the run.
+public class AdaptiveConcurrencyController {
+    public static final String DECISION_LOG_FILENAME = "JasperReportConcurrency.txt";
+    private static final long SAMPLE_INTERVAL_MILLIS = 1000;
+    private static final int SAMPLES_AFTER_DECREASE = 3;
+
+    private final int minWorkers;
+    private final int maxWorkers;
+    private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    private final OperatingSystemMXBean operatingSystemBean = ManagementFactory.getOperatingSystemMXBean();
+    private final List<String> decisions = new ArrayList<>();
+    private volatile int limit;
+    private ScheduledExecutorService sampler;
+    private long startTime;
+    private long lastGcMillis;
+    private long lastSampleTime;
+    private int samplesSinceDecrease = SAMPLES_AFTER_DECREASE;
+
+    public AdaptiveConcurrencyController(int initialWorkers, int minWorkers, int maxWorkers) {
+        this.minWorkers = Math.max(1, minWorkers);
+        this.maxWorkers = Math.max(this.minWorkers, maxWorkers);
+        this.limit = Math.min(this.maxWorkers, Math.max(this.minWorkers, initialWorkers));
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    public synchronized List<String> getDecisions() {
+        return new ArrayList<>(decisions);
+    }
+
+    public synchronized void start() {
+        if (sampler != null) return;
+        startTime = System.nanoTime();
+        lastSampleTime = startTime;
+        lastGcMillis = totalGcMillis();
+        decisions.clear();
+        decide(limit, "start, bounds "+minWorkers+".."+maxWorkers, null);
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread samplerThread = new Thread(runnable, "jasper-concurrency-sampler");
+            samplerThread.setDaemon(true);
+            return samplerThread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        ScheduledExecutorService stoppedSampler;
+        synchronized (this) {
+            stoppedSampler = sampler;
+            sampler = null;
+        }
+        if (stoppedSampler != null) stoppedSampler.shutdownNow();
+    }
+
+    public void writeDecisions(Path logDirectory) {
+        try (BufferedWriter writer = Files.newBufferedWriter(logDirectory.resolve(DECISION_LOG_FILENAME), StandardCharsets.UTF_8)) {
+            for (String decision : getDecisions()) {
+                writer.write(decision);
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to write concurrency decisions... - "+e.getMessage());
+        }
+    }
+
+    private synchronized void sample() {
+        long now = System.nanoTime();
+        long gcMillis = totalGcMillis();
+        double gcShare = (gcMillis - lastGcMillis) / Math.max(1.0, TimeUnit.NANOSECONDS.toMillis(now - lastSampleTime));
+        lastGcMillis = gcMillis;
+        lastSampleTime = now;
+        double heapAfterGc = heapAfterGcRatio();
+        double loadAverage = operatingSystemBean.getSystemLoadAverage();
+        double loadPerCore = loadAverage < 0 ? -1 : loadAverage / operatingSystemBean.getAvailableProcessors();
+        String measurements = String.format(Locale.ROOT, "heap after GC %.0f%%, GC %.0f%%, load per core %s",
+                heapAfterGc * 100, gcShare * 100, loadPerCore < 0 ? "n/a" : String.format(Locale.ROOT, "%.2f", loadPerCore));
+        samplesSinceDecrease++;
+        if (heapAfterGc > 0.80 || gcShare > 0.25) {
+            decrease(Math.max(minWorkers, limit / 2), "memory pressure", measurements);
+        } else if (heapAfterGc > 0.65 || gcShare > 0.10) {
+            // Close to the limit, more workers would only allocate faster
+        } else if (loadPerCore > 1.0) {
+            decrease(Math.max(minWorkers, limit - 1), "CPU oversubscribed", measurements);
+        } else if (limit < maxWorkers && samplesSinceDecrease > SAMPLES_AFTER_DECREASE) {
+            decide(limit + 1, "headroom", measurements);
+        }
+    }
+
+    private void decrease(int newLimit, String reason, String measurements) {
+        samplesSinceDecrease = 0;
+        if (newLimit < limit) decide(newLimit, reason, measurements);
+    }
+
+    private void decide(int newLimit, String reason, String measurements) {
+        String decision = String.format(Locale.ROOT, "%7.1fs  %d -> %d  %s%s", (System.nanoTime() - startTime) / 1e9, limit, newLimit,
+                reason, measurements == null ? "" : " ("+measurements+")");
+        decisions.add(decision);
+        System.out.println("Compile workers "+decision.trim());
+        limit = newLimit;
+    }
+
+    // What the heap pools still held after their last collection, the current heap usage also has garbage. Summed and
+    // taken against the whole heap, a survivor space is nearly full right after every young collection of Serial and Parallel GC.
+    private double heapAfterGcRatio() {
+        long usedAfterGc = 0;
+        boolean collectionUsageKnown = false;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() != MemoryType.HEAP) continue;
+            MemoryUsage collectionUsage = memoryPool.getCollectionUsage();
+            if (collectionUsage == null) continue;
+            usedAfterGc += collectionUsage.getUsed();
+            collectionUsageKnown = true;
+        }
+        MemoryUsage heapUsage = memoryBean.getHeapMemoryUsage();
+        long heapMax = heapUsage.getMax() > 0 ? heapUsage.getMax() : heapUsage.getCommitted();
+        return (double) (collectionUsageKnown ? usedAfterGc : heapUsage.getUsed()) / heapMax;
+    }
+
+    private static long totalGcMillis() {
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcMillis += Math.max(0, garbageCollector.getCollectionTime());
+        }
+        return gcMillis;
+    }
+}
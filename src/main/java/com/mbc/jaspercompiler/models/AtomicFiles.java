@@ -0,0 +1,77 @@
+package com.mbc.jaspercompiler.models;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Writes go to a temporary file next to the target that is then moved over it, so a killed run leaves
+// either the old file or the new one, never half of it.
+final class AtomicFiles {
+    private AtomicFiles() {
+    }
+
+    static void write(Path target, byte[] content) throws IOException {
+        Path temporaryFile = temporaryFile(target);
+        try {
+            // Created like any new file (umask), then given the permissions of the file it replaces
+            try (OutputStream outputStream = Files.newOutputStream(temporaryFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                outputStream.write(content);
+            }
+            copyPermissions(target, temporaryFile);
+            move(temporaryFile, target);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporaryFile);
+            throw e;
+        }
+    }
+
+    // A hard link shares the file, and its permissions, with the source. Where the file system has none it is copied.
+    static void copy(Path source, Path target, boolean hardLink) throws IOException {
+        Path temporaryFile = temporaryFile(target);
+        try {
+            boolean linked = false;
+            if (hardLink) {
+                try {
+                    Files.createLink(temporaryFile, source);
+                    linked = true;
+                } catch (UnsupportedOperationException | IOException e) {
+                    // Another file system or no hard links on this one
+                }
+            }
+            if (!linked) {
+                Files.copy(source, temporaryFile);
+                copyPermissions(target, temporaryFile);
+            }
+            move(temporaryFile, target);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporaryFile);
+            throw e;
+        }
+    }
+
+    static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static Path temporaryFile(Path target) {
+        return target.resolveSibling("."+target.getFileName()+"."+Long.toHexString(ThreadLocalRandom.current().nextLong())+".tmp");
+    }
+
+    private static void copyPermissions(Path from, Path to) {
+        if (!Files.exists(from)) return;
+        try {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch (UnsupportedOperationException | IOException e) {
+            // Not a POSIX file system, the new file keeps the default permissions
+        }
+    }
+}
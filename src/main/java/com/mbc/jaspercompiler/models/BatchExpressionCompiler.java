@@ -0,0 +1,224 @@
+package com.mbc.jaspercompiler.models;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.JasperReportsContext;
+import net.sf.jasperreports.engine.design.JRCompilationUnit;
+import net.sf.jasperreports.engine.design.JRJdtCompiler;
+import net.sf.jasperreports.engine.design.JasperDesign;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Compiles the expression classes of several Java reports in one JDT invocation.
+// Every report still goes through the normal JasperReports compile (verification, source generation,
+// building the JasperReport), only the compileUnits step is shared: the reports of an ExpressionBatch
+// wait for each other there, and the last one to arrive compiles all their units together.
+// If the shared compile reports errors, every report is compiled again on its own so a broken report
+// only fails itself. Reports in other languages (Groovy) are compiled the usual way.
+// Every report is a member of its batch and counts once, whether it arrives, leaves, or both (a timed-out report
+// leaves the batch for the report that is stuck, and may still arrive later).
+public class BatchExpressionCompiler extends JRJdtCompiler {
+    private final ThreadLocal<ExpressionBatch> currentBatch = new ThreadLocal<>();
+    private final ThreadLocal<Object> currentMember = new ThreadLocal<>();
+    private volatile long maxWaitMillis;
+
+    public BatchExpressionCompiler(JasperReportsContext jasperReportsContext) {
+        super(jasperReportsContext);
+    }
+
+    // How long a report waits for the rest of its batch before it compiles its units alone, 0 waits until they are there
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = Math.max(0, maxWaitMillis);
+    }
+
+    public ExpressionBatch newBatch(int reportCount) {
+        return new ExpressionBatch(reportCount);
+    }
+
+    // Blocks until every report of the batch has either reached the expression compile or left the batch.
+    // The batch slot of the calling report is always used up, whatever happens.
+    public JasperReport compile(ExpressionBatch expressionBatch, Object member, JasperDesign jasperDesign) throws JRException {
+        if (!"java".equalsIgnoreCase(jasperDesign.getLanguage())) {
+            expressionBatch.leave(member);
+            return JasperCompileManager.compileReport(jasperDesign);
+        }
+        currentBatch.set(expressionBatch);
+        currentMember.set(member);
+        try {
+            return compileReport(jasperDesign);
+        } finally {
+            // Still set when the design failed verification before its units were compiled
+            if (currentBatch.get() != null) expressionBatch.leave(member);
+            currentBatch.remove();
+            currentMember.remove();
+        }
+    }
+
+    @Override
+    protected String compileUnits(JRCompilationUnit[] units, String classpath, File tempDirFile) {
+        ExpressionBatch expressionBatch = currentBatch.get();
+        if (expressionBatch == null) return compileUnitsAlone(units, classpath, tempDirFile);
+        currentBatch.set(null);
+        return expressionBatch.arrive(currentMember.get(), units, classpath, tempDirFile);
+    }
+
+    // The .jasper files must not depend on this class, the expressions are plain JDT output
+    @Override
+    protected String getCompilerClass() {
+        return JRJdtCompiler.class.getName();
+    }
+
+    private String compileUnitsAlone(JRCompilationUnit[] units, String classpath, File tempDirFile) {
+        try {
+            return super.compileUnits(units, classpath, tempDirFile);
+        } catch (Exception e) {
+            return e.getMessage() == null ? e.toString() : e.getMessage();
+        }
+    }
+
+    public class ExpressionBatch {
+        private final List<PendingUnits> pendingUnits = new ArrayList<>();
+        private final Set<Object> countedMembers = new HashSet<>();
+        private int remainingReports;
+
+        private ExpressionBatch(int reportCount) {
+            this.remainingReports = reportCount;
+        }
+
+        // For reports that will not reach the expression compile (up to date, unreadable, invalid, timed out...)
+        public void leave(Object member) {
+            List<PendingUnits> readyUnits;
+            synchronized (this) {
+                if (!countedMembers.add(member)) return;
+                remainingReports--;
+                readyUnits = takeIfComplete();
+            }
+            if (readyUnits != null) compileTogether(readyUnits);
+        }
+
+        private String arrive(Object member, JRCompilationUnit[] units, String classpath, File tempDirFile) {
+            PendingUnits arrived = new PendingUnits(units, classpath, tempDirFile);
+            List<PendingUnits> readyUnits;
+            synchronized (this) {
+                // Left after its timeout, the batch did not wait for it and the report has already failed
+                if (!countedMembers.add(member)) return "Expression batch left after the report timed out";
+                pendingUnits.add(arrived);
+                remainingReports--;
+                readyUnits = takeIfComplete();
+            }
+            if (readyUnits != null) {
+                compileTogether(readyUnits);
+            } else if (!arrived.awaitCompiled(maxWaitMillis)) {
+                boolean withdrawn;
+                synchronized (this) {
+                    withdrawn = pendingUnits.remove(arrived);
+                }
+                // Not taken by the batch yet, a report that is stuck before its expression compile does not hold this one up
+                if (withdrawn) return compileUnitsAlone(units, classpath, tempDirFile);
+                arrived.awaitCompiled(0);
+            }
+            return arrived.errors;
+        }
+
+        private List<PendingUnits> takeIfComplete() {
+            if (remainingReports > 0 || pendingUnits.isEmpty()) return null;
+            List<PendingUnits> readyUnits = new ArrayList<>(pendingUnits);
+            pendingUnits.clear();
+            return readyUnits;
+        }
+
+        private void compileTogether(List<PendingUnits> readyUnits) {
+            try {
+                compileReadyUnits(readyUnits);
+            } finally {
+                // Never leave the other reports of the batch waiting
+                readyUnits.forEach(pending -> pending.compiledIfPending("Expression batch compile aborted"));
+            }
+        }
+
+        private void compileReadyUnits(List<PendingUnits> readyUnits) {
+            // Class names carry a random suffix, but two reports with the same name could still collide
+            List<JRCompilationUnit> batchUnits = new ArrayList<>();
+            List<PendingUnits> batchedReports = new ArrayList<>();
+            List<PendingUnits> separateReports = new ArrayList<>();
+            Set<String> unitNames = new HashSet<>();
+            for (PendingUnits pending : readyUnits) {
+                boolean uniqueNames = true;
+                for (JRCompilationUnit unit : pending.units) {
+                    if (unitNames.contains(unit.getName())) uniqueNames = false;
+                }
+                if (uniqueNames) {
+                    for (JRCompilationUnit unit : pending.units) {
+                        unitNames.add(unit.getName());
+                        batchUnits.add(unit);
+                    }
+                    batchedReports.add(pending);
+                } else {
+                    separateReports.add(pending);
+                }
+            }
+            PendingUnits first = batchedReports.get(0);
+            String batchErrors = batchedReports.size() == 1 ? null
+                    : compileUnitsAlone(batchUnits.toArray(new JRCompilationUnit[0]), first.classpath, first.tempDirFile);
+            for (PendingUnits pending : batchedReports) {
+                if (batchedReports.size() == 1 || batchErrors != null) {
+                    // One broken report fails the whole invocation, find out which one it was
+                    pending.compiled(compileUnitsAlone(pending.units, pending.classpath, pending.tempDirFile));
+                } else {
+                    pending.compiled(null);
+                }
+            }
+            for (PendingUnits pending : separateReports) {
+                pending.compiled(compileUnitsAlone(pending.units, pending.classpath, pending.tempDirFile));
+            }
+        }
+    }
+
+    private static class PendingUnits {
+        private final JRCompilationUnit[] units;
+        private final String classpath;
+        private final File tempDirFile;
+        private boolean compiled;
+        private String errors;
+
+        private PendingUnits(JRCompilationUnit[] units, String classpath, File tempDirFile) {
+            this.units = units;
+            this.classpath = classpath;
+            this.tempDirFile = tempDirFile;
+        }
+
+        private synchronized void compiled(String errors) {
+            this.errors = errors;
+            this.compiled = true;
+            notifyAll();
+        }
+
+        private synchronized void compiledIfPending(String errors) {
+            if (!compiled) compiled(errors);
+        }
+
+        // Returns false when maxWaitMillis (0 for no limit) passed first
+        private synchronized boolean awaitCompiled(long maxWaitMillis) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+            boolean interrupted = false;
+            while (!compiled) {
+                long remainingMillis = maxWaitMillis == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (maxWaitMillis > 0 && remainingMillis <= 0) break;
+                try {
+                    wait(remainingMillis);
+                } catch (InterruptedException e) {
+                    // The units belong to the batch now, the result is needed before returning
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            return compiled;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.mbc.jaspercompiler.models;
+
+// Cancel and pause for a running compile, set from any thread (UI, shutdown hook) and checked by the pipeline
+// stages before they start on the next report. Reports that are already compiling are not interrupted.
+public class CompileControl {
+    private boolean paused;
+    private volatile boolean cancelled;
+
+    public synchronized void cancel() {
+        cancelled = true;
+        // A paused run has to wake up to notice the cancel
+        notifyAll();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    // Blocks while paused, returns false when the run has been cancelled
+    public synchronized boolean awaitRunning() throws InterruptedException {
+        while (paused && !cancelled) {
+            wait();
+        }
+        return !cancelled;
+    }
+
+    // A new run starts neither paused nor cancelled
+    synchronized void reset() {
+        paused = false;
+        cancelled = false;
+    }
+}
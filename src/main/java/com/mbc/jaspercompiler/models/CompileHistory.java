@@ -0,0 +1,173 @@
+package com.mbc.jaspercompiler.models;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Compile time and size of every report from the earlier runs, kept next to the manifest. Used to order a run
+// longest expected compile first (ScheduleOrder) and to predict how long the run takes on the compile workers.
+// A report without history is expected to take as long per byte as the known reports do.
+//   RUN <tab> start of the last run in epoch millis
+//   compile nanos <tab> jrxml bytes <tab> source path
+public class CompileHistory {
+    public static final String HISTORY_FILENAME = ".jasper-compiler-history";
+    private final Path historyPath;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> compiledReports = ConcurrentHashMap.newKeySet();
+    // The expected compile times of every planned group of reports, in the order they were handed out
+    private final List<List<PlannedReport>> plannedGroups = new ArrayList<>();
+    private boolean plannedWithoutHistory;
+    private long lastRunMillis;
+    private long runStartMillis;
+
+    public CompileHistory(Path historyDirectory) {
+        this.historyPath = historyDirectory.resolve(HISTORY_FILENAME);
+    }
+
+    public void load() {
+        entries.clear();
+        compiledReports.clear();
+        plannedGroups.clear();
+        plannedWithoutHistory = false;
+        lastRunMillis = 0;
+        runStartMillis = System.currentTimeMillis();
+        if (!Files.exists(historyPath)) return;
+        try {
+            for (String line : Files.readAllLines(historyPath, StandardCharsets.UTF_8)) {
+                String[] columns = line.split("\t", 3);
+                if (columns.length == 2 && columns[0].equals("RUN")) {
+                    lastRunMillis = Long.parseLong(columns[1]);
+                } else if (columns.length == 3) {
+                    entries.put(columns[2], new Entry(Long.parseLong(columns[0]), Long.parseLong(columns[1])));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Failed to read compile history, reports are ordered by size... - "+e.getMessage());
+            entries.clear();
+        }
+    }
+
+    public void save() {
+        StringBuilder lines = new StringBuilder("RUN\t").append(runStartMillis).append(System.lineSeparator());
+        entries.forEach((sourcePath, entry) -> {
+            if (Files.exists(Path.of(sourcePath))) {
+                lines.append(entry.compileNanos).append('\t').append(entry.size).append('\t').append(sourcePath).append(System.lineSeparator());
+            }
+        });
+        try {
+            AtomicFiles.write(historyPath, lines.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.out.println("Failed to write compile history "+historyPath+" - "+e.getMessage());
+        }
+    }
+
+    // Averaged with the earlier runs, one slow run on a busy machine does not move a report to the front for good
+    public void record(Path sourceFile, long compileNanos, long size) {
+        String key = key(sourceFile);
+        compiledReports.add(key);
+        entries.merge(key, new Entry(compileNanos, size),
+                (previous, current) -> new Entry((previous.compileNanos + current.compileNanos) / 2, current.size));
+    }
+
+    // Returns the reports in the order they should be compiled and remembers their expected compile times
+    // for predictMakespanNanos. With recentFirst the reports changed since the last run come before the rest.
+    public List<ReportCompileJob> plan(List<ReportCompileJob> compileJobs, boolean recentFirst) {
+        double nanosPerByte = nanosPerByte();
+        List<PlannedReport> plannedReports = new ArrayList<>(compileJobs.size());
+        for (ReportCompileJob compileJob : compileJobs) {
+            long size = 0;
+            long modifiedMillis = 0;
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(compileJob.getSourceFile(), BasicFileAttributes.class);
+                size = attributes.size();
+                modifiedMillis = attributes.lastModifiedTime().toMillis();
+            } catch (IOException e) {
+                // Compiled last, the prepare stage reports why it cannot be read
+            }
+            Entry entry = entries.get(key(compileJob.getSourceFile()));
+            long expectedNanos = entry != null ? entry.compileNanos : (long) (size * nanosPerByte);
+            boolean recent = recentFirst && lastRunMillis > 0 && modifiedMillis >= lastRunMillis;
+            plannedReports.add(new PlannedReport(compileJob, expectedNanos, size, recent));
+        }
+        // Without any history the size is all there is to go on, it still puts the big reports first
+        plannedReports.sort(Comparator.comparing((PlannedReport plannedReport) -> !plannedReport.recent)
+                .thenComparing(Comparator.comparingLong((PlannedReport plannedReport) -> plannedReport.expectedNanos).reversed())
+                .thenComparing(Comparator.comparingLong((PlannedReport plannedReport) -> plannedReport.size).reversed()));
+        synchronized (plannedGroups) {
+            plannedGroups.add(plannedReports);
+            if (nanosPerByte == 0) plannedWithoutHistory = true;
+        }
+        List<ReportCompileJob> orderedJobs = new ArrayList<>(plannedReports.size());
+        plannedReports.forEach(plannedReport -> orderedJobs.add(plannedReport.compileJob));
+        return orderedJobs;
+    }
+
+    // How long the reports that were really compiled should have taken on the given number of workers, each report
+    // going to the first free worker in planned order, groups one after another. -1 without history to predict from.
+    public long predictMakespanNanos(int workers) {
+        long makespanNanos = 0;
+        synchronized (plannedGroups) {
+            if (plannedGroups.isEmpty() || plannedWithoutHistory) return -1;
+            for (List<PlannedReport> plannedReports : plannedGroups) {
+                PriorityQueue<Long> workerLoads = new PriorityQueue<>();
+                for (int i = 0; i < Math.max(1, workers); i++) workerLoads.add(0L);
+                long groupNanos = 0;
+                for (PlannedReport plannedReport : plannedReports) {
+                    if (!compiledReports.contains(key(plannedReport.compileJob.getSourceFile()))) continue;
+                    long workerLoad = workerLoads.poll() + plannedReport.expectedNanos;
+                    groupNanos = Math.max(groupNanos, workerLoad);
+                    workerLoads.add(workerLoad);
+                }
+                makespanNanos += groupNanos;
+            }
+        }
+        return makespanNanos;
+    }
+
+    private double nanosPerByte() {
+        long totalNanos = 0;
+        long totalSize = 0;
+        for (Entry entry : entries.values()) {
+            totalNanos += entry.compileNanos;
+            totalSize += entry.size;
+        }
+        return totalSize == 0 ? 0 : (double) totalNanos / totalSize;
+    }
+
+    private static String key(Path sourceFile) {
+        return sourceFile.toAbsolutePath().normalize().toString();
+    }
+
+    private static class Entry {
+        private final long compileNanos;
+        private final long size;
+
+        private Entry(long compileNanos, long size) {
+            this.compileNanos = compileNanos;
+            this.size = size;
+        }
+    }
+
+    private static class PlannedReport {
+        private final ReportCompileJob compileJob;
+        private final long expectedNanos;
+        private final long size;
+        private final boolean recent;
+
+        private PlannedReport(ReportCompileJob compileJob, long expectedNanos, long size, boolean recent) {
+            this.compileJob = compileJob;
+            this.expectedNanos = expectedNanos;
+            this.size = size;
+            this.recent = recent;
+        }
+    }
+}
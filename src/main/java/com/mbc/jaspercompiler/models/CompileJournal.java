@@ -0,0 +1,107 @@
+package com.mbc.jaspercompiler.models;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Append-only record of the reports a run has finished, one line per report as soon as its output is in place.
+// A run that is killed leaves the journal behind, the next run with the same settings skips every report that
+// is in it and still has the same source, and only compiles the rest. A run that gets to the end removes it.
+//   RUN  <tab> settings hash
+//   DONE <tab> source hash <tab> source path
+public class CompileJournal {
+    public static final String JOURNAL_FILENAME = ".jasper-compiler-journal";
+    private final Path journalPath;
+    private final String runKey;
+    private final Map<String, String> completedReports = new ConcurrentHashMap<>();
+    private BufferedWriter journalWriter;
+
+    public CompileJournal(Path journalDirectory, String runSettings) {
+        this.journalPath = journalDirectory.resolve(JOURNAL_FILENAME);
+        this.runKey = CompileManifest.hash(runSettings.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Loads what an interrupted run with the same settings finished and opens the journal for this run.
+    // Returns the number of reports that can be skipped.
+    public int open(boolean resume) {
+        completedReports.clear();
+        boolean sameRun = false;
+        if (resume && Files.exists(journalPath)) {
+            try {
+                List<String> lines = Files.readAllLines(journalPath, StandardCharsets.UTF_8);
+                sameRun = !lines.isEmpty() && lines.get(0).equals("RUN\t"+runKey);
+                for (int i = 1; sameRun && i < lines.size(); i++) {
+                    // A line cut off by the kill has fewer columns and is ignored
+                    String[] columns = lines.get(i).split("\t", 3);
+                    if (columns.length == 3 && columns[0].equals("DONE")) completedReports.put(columns[2], columns[1]);
+                }
+            } catch (IOException e) {
+                System.out.println("Failed to read compile journal, compiling everything... - "+e.getMessage());
+                completedReports.clear();
+                sameRun = false;
+            }
+        }
+        try {
+            if (sameRun) {
+                journalWriter = Files.newBufferedWriter(journalPath, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            } else {
+                completedReports.clear();
+                journalWriter = Files.newBufferedWriter(journalPath, StandardCharsets.UTF_8);
+                journalWriter.write("RUN\t"+runKey+"\n");
+                journalWriter.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to open compile journal "+journalPath+", the run cannot be resumed - "+e.getMessage());
+            journalWriter = null;
+        }
+        return completedReports.size();
+    }
+
+    public boolean isCompleted(Path sourceFile, byte[] sourceContent) {
+        String sourceHash = completedReports.get(key(sourceFile));
+        return sourceHash != null && sourceHash.equals(CompileManifest.hash(sourceContent));
+    }
+
+    // sourceContent is the source as it is on disk after the run
+    public synchronized void recordCompleted(Path sourceFile, byte[] sourceContent) {
+        if (journalWriter == null) return;
+        try {
+            // Flushed per line, the journal is only worth something if it survives a kill
+            journalWriter.write("DONE\t"+CompileManifest.hash(sourceContent)+"\t"+key(sourceFile)+"\n");
+            journalWriter.flush();
+        } catch (IOException e) {
+            System.out.println("Failed to write compile journal "+journalPath+" - "+e.getMessage());
+        }
+    }
+
+    // The run stopped early, the journal stays for the next one
+    public synchronized void close() {
+        try {
+            if (journalWriter != null) journalWriter.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close compile journal "+journalPath+" - "+e.getMessage());
+        }
+        journalWriter = null;
+    }
+
+    // The run got to the end, nothing to resume
+    public synchronized void finish() {
+        try {
+            if (journalWriter != null) journalWriter.close();
+            journalWriter = null;
+            Files.deleteIfExists(journalPath);
+        } catch (IOException e) {
+            System.out.println("Failed to remove compile journal "+journalPath+" - "+e.getMessage());
+        }
+    }
+
+    private static String key(Path sourceFile) {
+        return sourceFile.toAbsolutePath().normalize().toString();
+    }
+}
@@ -0,0 +1,23 @@
+package com.mbc.jaspercompiler.models;
+
+import java.nio.file.Path;
+
+// Callbacks from the compile engine. They are called on the compile threads, so UI listeners
+// have to hand the work over to their own thread.
+public interface CompileListener {
+    default void onCompileStarted(int totalFiles) {}
+
+    default void onTotalFilesChanged(int totalFiles) {}
+
+    default void onReportCompiling(Path sourceFile) {}
+
+    // Coalesced counter snapshot, published at most once per progress interval
+    default void onProgress(CompileProgress progress) {}
+
+    // The time the report spent in each phase, right before onReportCompiled
+    default void onReportTimed(Path sourceFile, ReportTiming reportTiming) {}
+
+    default void onReportCompiled(Path sourceFile, ReportCompileStatus status, String errorMessage) {}
+
+    default void onCompileFinished(CompileSummary summary) {}
+}
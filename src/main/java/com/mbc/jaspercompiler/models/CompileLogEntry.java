@@ -0,0 +1,37 @@
+package com.mbc.jaspercompiler.models;
+
+public class CompileLogEntry {
+    private final long timestamp;
+    private final String sourceFile;
+    private final ReportCompileStatus status;
+    private final long durationMillis;
+    private final String errorMessage;
+
+    public CompileLogEntry(String sourceFile, ReportCompileStatus status, long durationMillis, String errorMessage) {
+        this.timestamp = System.currentTimeMillis();
+        this.sourceFile = sourceFile;
+        this.status = status;
+        this.durationMillis = durationMillis;
+        this.errorMessage = errorMessage;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getSourceFile() {
+        return sourceFile;
+    }
+
+    public ReportCompileStatus getStatus() {
+        return status;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+}
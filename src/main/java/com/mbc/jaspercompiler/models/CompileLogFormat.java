@@ -0,0 +1,8 @@
+package com.mbc.jaspercompiler.models;
+
+public enum CompileLogFormat {
+    // The three plain text files: compiled list, errors and fail list
+    TEXT,
+    // One JSON object per report with file, status, duration and error message
+    JSON_LINES
+}
@@ -0,0 +1,209 @@
+package com.mbc.jaspercompiler.models;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Compile workers only enqueue log entries. A single writer thread keeps the log files open for
+// the whole run and flushes in batches, either every batchSize entries or every flushIntervalMillis.
+public class CompileLogWriter implements AutoCloseable {
+    public static final String COMPILE_REPORT_LOG_FILENAME = "JasperReportCompileLogs.txt";
+    public static final String COMPILE_ERROR_LOG_FILENAME = "JasperReportCompileErrors.txt";
+    public static final String COMPILE_FAIL_LIST_LOG_FILENAME = "JasperReportCompileFailList.txt";
+    public static final String COMPILE_JSON_LOG_FILENAME = "JasperReportCompileLog.jsonl";
+    private static final Object END_OF_LOG = new Object();
+
+    private final Path logDirectory;
+    private final CompileLogFormat logFormat;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final boolean append;
+    private final BlockingQueue<Object> logQueue = new LinkedBlockingQueue<>();
+    private Thread writerThread;
+    private BufferedWriter compileLogWriter;
+    private BufferedWriter errorLogWriter;
+    private BufferedWriter failListLogWriter;
+    private BufferedWriter jsonLogWriter;
+
+    public CompileLogWriter(Path logDirectory, CompileLogFormat logFormat, boolean append) {
+        this(logDirectory, logFormat, append, 256, 500);
+    }
+
+    public CompileLogWriter(Path logDirectory, CompileLogFormat logFormat, boolean append, int batchSize, long flushIntervalMillis) {
+        this.logDirectory = logDirectory;
+        this.logFormat = logFormat;
+        this.append = append;
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    // C:\ProgramData on Windows as before, ~/.jasper-compiler/logs everywhere else
+    public static Path defaultLogDirectory() {
+        if (System.getProperty("os.name", "").toLowerCase().startsWith("windows")) {
+            return Paths.get("C:\\ProgramData");
+        }
+        return Paths.get(System.getProperty("user.home"), ".jasper-compiler", "logs");
+    }
+
+    public Path getLogDirectory() {
+        return logDirectory;
+    }
+
+    public void start() {
+        try {
+            Files.createDirectories(logDirectory);
+            if (logFormat == CompileLogFormat.JSON_LINES) {
+                jsonLogWriter = openLogFile(COMPILE_JSON_LOG_FILENAME);
+            } else {
+                compileLogWriter = openLogFile(COMPILE_REPORT_LOG_FILENAME);
+                errorLogWriter = openLogFile(COMPILE_ERROR_LOG_FILENAME);
+                failListLogWriter = openLogFile(COMPILE_FAIL_LIST_LOG_FILENAME);
+            }
+        } catch (IOException ioe) {
+            System.out.println("Failed to create or delete log files... - "+ioe.getMessage());
+        }
+        writerThread = new Thread(this::writeLoop, "jasper-compile-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public void log(CompileLogEntry logEntry) {
+        logQueue.add(logEntry);
+    }
+
+    // Messages that are not about one report, they only go to the error log
+    public void logError(String message) {
+        logQueue.add(message);
+    }
+
+    @Override
+    public void close() {
+        if (writerThread == null) return;
+        logQueue.add(END_OF_LOG);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writerThread = null;
+        closeQuietly(compileLogWriter);
+        closeQuietly(errorLogWriter);
+        closeQuietly(failListLogWriter);
+        closeQuietly(jsonLogWriter);
+    }
+
+    private void writeLoop() {
+        List<Object> batch = new ArrayList<>(batchSize);
+        long lastFlushTime = System.currentTimeMillis();
+        boolean ended = false;
+        while (!ended) {
+            try {
+                Object first = logQueue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    logQueue.drainTo(batch, batchSize - 1);
+                }
+            } catch (InterruptedException e) {
+                batch.add(END_OF_LOG);
+                logQueue.drainTo(batch);
+            }
+            ended = batch.removeIf(logItem -> logItem == END_OF_LOG);
+            for (Object logItem : batch) {
+                write(logItem);
+            }
+            boolean flushDue = batch.size() >= batchSize || System.currentTimeMillis() - lastFlushTime >= flushIntervalMillis;
+            batch.clear();
+            if (ended || flushDue) {
+                flushAll();
+                lastFlushTime = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private void write(Object logItem) {
+        try {
+            if (logItem instanceof CompileLogEntry) {
+                writeEntry((CompileLogEntry) logItem);
+            } else if (jsonLogWriter != null) {
+                jsonLogWriter.write("{\"timestamp\":"+System.currentTimeMillis()+",\"status\":\"ERROR\",\"error\":"+jsonString(String.valueOf(logItem))+"}\n");
+            } else if (errorLogWriter != null) {
+                errorLogWriter.write(logItem+"\n");
+            }
+        } catch (IOException ioe) {
+            System.out.println("Error while exporting compile log file in "+logDirectory);
+        }
+    }
+
+    private void writeEntry(CompileLogEntry logEntry) throws IOException {
+        if (jsonLogWriter != null) {
+            jsonLogWriter.write("{\"timestamp\":"+logEntry.getTimestamp()
+                    +",\"file\":"+jsonString(logEntry.getSourceFile())
+                    +",\"status\":\""+logEntry.getStatus()+"\""
+                    +",\"durationMillis\":"+logEntry.getDurationMillis()
+                    +",\"error\":"+(logEntry.getErrorMessage() == null ? "null" : jsonString(logEntry.getErrorMessage()))+"}\n");
+            return;
+        }
+        if (logEntry.getStatus() == ReportCompileStatus.FAILED) {
+            if (errorLogWriter != null) errorLogWriter.write(logEntry.getSourceFile()+" - "+logEntry.getErrorMessage()+"\n");
+            if (failListLogWriter != null) failListLogWriter.write(logEntry.getSourceFile()+"\n");
+        } else if (logEntry.getStatus() == ReportCompileStatus.SUCCESS && compileLogWriter != null) {
+            compileLogWriter.write(logEntry.getSourceFile()+"\n");
+        }
+    }
+
+    private BufferedWriter openLogFile(String filename) throws IOException {
+        if (append) {
+            return Files.newBufferedWriter(logDirectory.resolve(filename), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        return Files.newBufferedWriter(logDirectory.resolve(filename), StandardCharsets.UTF_8);
+    }
+
+    private void flushAll() {
+        for (BufferedWriter writer : new BufferedWriter[] {compileLogWriter, errorLogWriter, failListLogWriter, jsonLogWriter}) {
+            if (writer == null) continue;
+            try {
+                writer.flush();
+            } catch (IOException ioe) {
+                System.out.println("Error while flushing compile log files in "+logDirectory);
+            }
+        }
+    }
+
+    private static void closeQuietly(BufferedWriter writer) {
+        if (writer == null) return;
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    static String jsonString(String value) {
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+}
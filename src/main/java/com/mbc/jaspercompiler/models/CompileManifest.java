@@ -0,0 +1,134 @@
+package com.mbc.jaspercompiler.models;
+
+import net.sf.jasperreports.engine.JasperCompileManager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Remembers what every report was last compiled from, so unchanged reports can be skipped on the next run.
+public class CompileManifest {
+    public static final String MANIFEST_FILENAME = ".jasper-compiler-manifest";
+    private static final String JASPER_REPORTS_VERSION = findJasperReportsVersion();
+    private final Path manifestPath;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public CompileManifest(Path manifestDirectory) {
+        this.manifestPath = manifestDirectory.resolve(MANIFEST_FILENAME);
+    }
+
+    public Path getManifestPath() {
+        return manifestPath;
+    }
+
+    public void load() {
+        entries.clear();
+        if (!Files.exists(manifestPath)) return;
+        try {
+            for (String line : Files.readAllLines(manifestPath, StandardCharsets.UTF_8)) {
+                String[] columns = line.split("\t");
+                if (columns.length != 5) continue;
+                entries.put(columns[0], new Entry(columns[1], columns[2], columns[3], Long.parseLong(columns[4])));
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Failed to read compile manifest, compiling everything... - "+e.getMessage());
+            entries.clear();
+        }
+    }
+
+    public void save() {
+        StringBuilder lines = new StringBuilder();
+        entries.forEach((sourcePath, entry) -> {
+            if (Files.exists(Path.of(sourcePath))) {
+                lines.append(sourcePath).append('\t').append(entry.sourceHash).append('\t').append(entry.fontName).append('\t')
+                        .append(entry.jasperReportsVersion).append('\t').append(entry.outputStamp).append(System.lineSeparator());
+            }
+        });
+        try {
+            AtomicFiles.write(manifestPath, lines.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.out.println("Failed to write compile manifest "+manifestPath+" - "+e.getMessage());
+        }
+    }
+
+    // sourceContent is the report as it is on disk, so the source never has to be read twice
+    public boolean isUpToDate(Path sourceFile, byte[] sourceContent, Path jasperFile, String fontName) {
+        if (!Files.exists(jasperFile)) return false;
+        try {
+            return isUpToDate(sourceFile, sourceContent, Files.getLastModifiedTime(jasperFile).toMillis(), fontName);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // For output that is not a .jasper file of its own, outputStamp identifies what was written (a report bundle entry)
+    public boolean isUpToDate(Path sourceFile, byte[] sourceContent, long outputStamp, String fontName) {
+        Entry entry = entries.get(key(sourceFile));
+        return entry != null
+                && entry.fontName.equals(fontName)
+                && entry.jasperReportsVersion.equals(JASPER_REPORTS_VERSION)
+                && entry.outputStamp == outputStamp
+                && entry.sourceHash.equals(hash(sourceContent));
+    }
+
+    public void record(Path sourceFile, byte[] sourceContent, Path jasperFile, String fontName) {
+        try {
+            record(sourceFile, sourceContent, Files.getLastModifiedTime(jasperFile).toMillis(), fontName);
+        } catch (IOException e) {
+            entries.remove(key(sourceFile));
+        }
+    }
+
+    public void record(Path sourceFile, byte[] sourceContent, long outputStamp, String fontName) {
+        entries.put(key(sourceFile), new Entry(hash(sourceContent), fontName, JASPER_REPORTS_VERSION, outputStamp));
+    }
+
+    private static String key(Path sourceFile) {
+        return sourceFile.toAbsolutePath().normalize().toString();
+    }
+
+    static String hash(byte[] content) {
+        return toHex(newDigest().digest(content));
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static String findJasperReportsVersion() {
+        String version = JasperCompileManager.class.getPackage().getImplementationVersion();
+        return version == null ? "unknown" : version;
+    }
+
+    private static class Entry {
+        private final String sourceHash;
+        private final String fontName;
+        private final String jasperReportsVersion;
+        // Modification time of the .jasper, or the stamp of its report bundle entry
+        private final long outputStamp;
+
+        private Entry(String sourceHash, String fontName, String jasperReportsVersion, long outputStamp) {
+            this.sourceHash = sourceHash;
+            this.fontName = fontName;
+            this.jasperReportsVersion = jasperReportsVersion;
+            this.outputStamp = outputStamp;
+        }
+    }
+}
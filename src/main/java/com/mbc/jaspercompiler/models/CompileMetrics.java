@@ -0,0 +1,178 @@
+package com.mbc.jaspercompiler.models;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+// Collects per-report phase timings of one run and writes the end-of-run summary:
+// p50/p95/max per phase, the slowest reports as JSON and CSV, and optionally a Prometheus text file.
+public class CompileMetrics {
+    public static final String METRICS_JSON_FILENAME = "JasperReportCompileMetrics.json";
+    public static final String SLOWEST_REPORTS_CSV_FILENAME = "JasperReportCompileSlowest.csv";
+    private static final double[] HISTOGRAM_BUCKETS_SECONDS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    private final Queue<ReportTiming> reportTimings = new ConcurrentLinkedQueue<>();
+    private volatile long discoveryNanos;
+    private volatile long predictedMakespanNanos = -1;
+    private volatile long actualMakespanNanos;
+
+    public void record(ReportTiming reportTiming) {
+        reportTimings.add(reportTiming);
+    }
+
+    public void recordDiscovery(long nanos) {
+        discoveryNanos = nanos;
+    }
+
+    public long getDiscoveryNanos() {
+        return discoveryNanos;
+    }
+
+    // predictedNanos is -1 when the run was not planned from a compile history
+    public void recordMakespan(long predictedNanos, long actualNanos) {
+        predictedMakespanNanos = predictedNanos;
+        actualMakespanNanos = actualNanos;
+    }
+
+    public long getPredictedMakespanNanos() {
+        return predictedMakespanNanos;
+    }
+
+    public long getActualMakespanNanos() {
+        return actualMakespanNanos;
+    }
+
+    public List<ReportTiming> getSlowestReports(int count) {
+        List<ReportTiming> slowestReports = new ArrayList<>(reportTimings);
+        slowestReports.sort(Comparator.comparingLong(ReportTiming::getTotalNanos).reversed());
+        return slowestReports.subList(0, Math.min(count, slowestReports.size()));
+    }
+
+    // Sorted durations of one phase, only reports that actually went through that phase
+    private long[] sortedNanos(CompilePhase phase) {
+        long[] nanos = reportTimings.stream().mapToLong(timing -> timing.getNanos(phase)).filter(value -> value > 0).toArray();
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    private long[] sortedTotalNanos() {
+        long[] nanos = reportTimings.stream().mapToLong(ReportTiming::getTotalNanos).toArray();
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    private static long percentile(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) return 0;
+        int index = (int) Math.ceil(percentile / 100.0 * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, Math.min(index, sortedNanos.length - 1))];
+    }
+
+    public void writeSummary(Path directory, int slowestReportCount, Path prometheusFile) {
+        try {
+            Files.createDirectories(directory);
+            writeJson(directory.resolve(METRICS_JSON_FILENAME), slowestReportCount);
+            writeCsv(directory.resolve(SLOWEST_REPORTS_CSV_FILENAME), slowestReportCount);
+            if (prometheusFile != null) writePrometheus(prometheusFile);
+        } catch (IOException e) {
+            System.out.println("Failed to write compile metrics in "+directory+" - "+e.getMessage());
+        }
+    }
+
+    private void writeJson(Path jsonFile, int slowestReportCount) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(jsonFile, StandardCharsets.UTF_8)) {
+            writer.write("{\n  \"reports\": "+reportTimings.size()+",\n");
+            writer.write("  \"discoveryMillis\": "+millis(discoveryNanos)+",\n");
+            if (predictedMakespanNanos >= 0) writer.write("  \"predictedMakespanMillis\": "+millis(predictedMakespanNanos)+",\n");
+            writer.write("  \"actualMakespanMillis\": "+millis(actualMakespanNanos)+",\n");
+            writer.write("  \"phases\": {\n");
+            CompilePhase[] phases = CompilePhase.values();
+            for (int i = 0; i < phases.length; i++) {
+                writer.write("    \""+phases[i].name().toLowerCase(Locale.ROOT)+"\": "+percentilesJson(sortedNanos(phases[i]))+",\n");
+            }
+            writer.write("    \"total\": "+percentilesJson(sortedTotalNanos())+"\n  },\n");
+            writer.write("  \"slowest\": [");
+            List<ReportTiming> slowestReports = getSlowestReports(slowestReportCount);
+            for (int i = 0; i < slowestReports.size(); i++) {
+                ReportTiming timing = slowestReports.get(i);
+                writer.write(i == 0 ? "\n" : ",\n");
+                writer.write("    {\"file\": "+CompileLogWriter.jsonString(timing.getSourceFile())
+                        +", \"status\": \""+timing.getStatus()+"\", \"totalMillis\": "+millis(timing.getTotalNanos()));
+                for (CompilePhase phase : phases) {
+                    writer.write(", \""+phase.name().toLowerCase(Locale.ROOT)+"Millis\": "+millis(timing.getNanos(phase)));
+                }
+                writer.write("}");
+            }
+            writer.write("\n  ]\n}\n");
+        }
+    }
+
+    private String percentilesJson(long[] sortedNanos) {
+        return "{\"count\": "+sortedNanos.length+", \"p50Millis\": "+millis(percentile(sortedNanos, 50))
+                +", \"p95Millis\": "+millis(percentile(sortedNanos, 95))
+                +", \"maxMillis\": "+millis(sortedNanos.length == 0 ? 0 : sortedNanos[sortedNanos.length - 1])+"}";
+    }
+
+    private void writeCsv(Path csvFile, int slowestReportCount) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8)) {
+            writer.write("file,status,total_ms");
+            for (CompilePhase phase : CompilePhase.values()) {
+                writer.write(","+phase.name().toLowerCase(Locale.ROOT)+"_ms");
+            }
+            writer.write("\n");
+            for (ReportTiming timing : getSlowestReports(slowestReportCount)) {
+                writer.write("\""+timing.getSourceFile().replace("\"", "\"\"")+"\","+timing.getStatus()+","+millis(timing.getTotalNanos()));
+                for (CompilePhase phase : CompilePhase.values()) {
+                    writer.write(","+millis(timing.getNanos(phase)));
+                }
+                writer.write("\n");
+            }
+        }
+    }
+
+    private void writePrometheus(Path prometheusFile) throws IOException {
+        if (prometheusFile.getParent() != null) Files.createDirectories(prometheusFile.getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(prometheusFile, StandardCharsets.UTF_8)) {
+            writer.write("# HELP jasper_compile_phase_seconds Time spent per report in each compile phase.\n");
+            writer.write("# TYPE jasper_compile_phase_seconds histogram\n");
+            for (CompilePhase phase : CompilePhase.values()) {
+                writeHistogram(writer, phase.name().toLowerCase(Locale.ROOT), sortedNanos(phase));
+            }
+            writeHistogram(writer, "total", sortedTotalNanos());
+            writer.write("# HELP jasper_compile_discovery_seconds Time spent discovering reports.\n");
+            writer.write("# TYPE jasper_compile_discovery_seconds gauge\n");
+            writer.write("jasper_compile_discovery_seconds "+seconds(discoveryNanos)+"\n");
+        }
+    }
+
+    private void writeHistogram(BufferedWriter writer, String phase, long[] sortedNanos) throws IOException {
+        int index = 0;
+        long sumNanos = 0;
+        for (long nanos : sortedNanos) sumNanos += nanos;
+        for (double bucket : HISTOGRAM_BUCKETS_SECONDS) {
+            long bucketNanos = (long) (bucket * TimeUnit.SECONDS.toNanos(1));
+            while (index < sortedNanos.length && sortedNanos[index] <= bucketNanos) index++;
+            writer.write("jasper_compile_phase_seconds_bucket{phase=\""+phase+"\",le=\""+bucket+"\"} "+index+"\n");
+        }
+        writer.write("jasper_compile_phase_seconds_bucket{phase=\""+phase+"\",le=\"+Inf\"} "+sortedNanos.length+"\n");
+        writer.write("jasper_compile_phase_seconds_sum{phase=\""+phase+"\"} "+seconds(sumNanos)+"\n");
+        writer.write("jasper_compile_phase_seconds_count{phase=\""+phase+"\"} "+sortedNanos.length+"\n");
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1_000_000_000.0);
+    }
+}
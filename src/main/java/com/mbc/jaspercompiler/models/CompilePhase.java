@@ -0,0 +1,13 @@
+package com.mbc.jaspercompiler.models;
+
+public enum CompilePhase {
+    READ,
+    REWRITE,
+    // Optional schema and structure checks of the rewritten report
+    VALIDATE,
+    // JRXmlLoader, jrxml to JasperDesign
+    PARSE,
+    // Expression class generation and compilation
+    COMPILE,
+    WRITE
+}
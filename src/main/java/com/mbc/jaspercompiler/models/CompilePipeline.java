@@ -0,0 +1,216 @@
+package com.mbc.jaspercompiler.models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+
+// Discovery -> prepare (read, up-to-date check, font rewrite) -> compile, every stage on its own threads.
+// The stages are connected by bounded queues, so compiling starts with the first report that is found
+// and a slow compile stage holds discovery back instead of piling up reports in memory.
+// On cancel discovery stops and the queued reports are drained without being compiled, the running compiles finish.
+// A compile that runs longer than the report timeout is given up: the report fails, its worker slot is handed to the
+// next report and the stuck thread is left to end on its own (a JDT or JRXmlLoader call cannot be stopped safely).
+class CompilePipeline {
+    private static final ReportCompileJob END_OF_JOBS = new ReportCompileJob(null, null);
+    private static final PreparedReport END_OF_REPORTS = new PreparedReport(null, null, 0, null, null);
+    // How long a partly filled expression batch waits for more prepared reports
+    private static final long BATCH_FILL_MILLIS = 50;
+
+    private final int queueCapacity;
+    private final int prepareWorkers;
+    private final int expressionBatchSize;
+    private final CompileControl compileControl;
+    private final long reportTimeoutMillis;
+    private final IntSupplier compileLimit;
+
+    // compileLimit changes the number of compile workers while the pipeline runs, null keeps compileWorkers
+    CompilePipeline(int queueCapacity, int prepareWorkers, int compileWorkers, int expressionBatchSize,
+                    CompileControl compileControl, long reportTimeoutMillis, IntSupplier compileLimit) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.prepareWorkers = Math.max(1, prepareWorkers);
+        this.expressionBatchSize = Math.max(1, expressionBatchSize);
+        this.compileControl = compileControl;
+        this.reportTimeoutMillis = reportTimeoutMillis;
+        // Every report of a batch has to be running at the same time for the batch to complete,
+        // the limit never goes below the batch size
+        int batchSize = this.expressionBatchSize;
+        int fixedLimit = Math.max(batchSize, compileWorkers);
+        this.compileLimit = compileLimit == null ? () -> fixedLimit : () -> Math.max(batchSize, compileLimit.getAsInt());
+    }
+
+    // discovery hands every report it finds to the given sink, prepare returns null for reports it already finished.
+    // newBatch is only used when expressionBatchSize is more than 1, timeout is called for reports that exceed the
+    // report timeout. Blocks until every report has been compiled, given up or drained.
+    void run(Consumer<Consumer<ReportCompileJob>> discovery, Function<ReportCompileJob, PreparedReport> prepare,
+             BiConsumer<PreparedReport, BatchExpressionCompiler.ExpressionBatch> compile,
+             IntFunction<BatchExpressionCompiler.ExpressionBatch> newBatch, Consumer<PreparedReport> timeout) {
+        BlockingQueue<ReportCompileJob> discoveredJobs = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<PreparedReport> preparedReports = new ArrayBlockingQueue<>(queueCapacity);
+        List<Thread> stageThreads = new ArrayList<>();
+        stageThreads.add(newStageThread("jasper-report-discovery", () -> {
+            try {
+                discovery.accept(compileJob -> {
+                    if (compileControl.isCancelled()) throw new DiscoveryCancelledException();
+                    put(discoveredJobs, compileJob);
+                });
+            } catch (StageInterruptedException e) {
+                return;
+            } catch (DiscoveryCancelledException e) {
+                // The end marker still goes in, so the other stages drain what is queued and stop
+            } catch (RuntimeException e) {
+                // Compile whatever was found before the walk failed
+                System.out.println("Error in report discovery... - "+e);
+            }
+            try {
+                discoveredJobs.put(END_OF_JOBS);
+            } catch (InterruptedException e) {
+                // The pipeline is being stopped
+            }
+        }));
+        AtomicInteger runningPrepareWorkers = new AtomicInteger(prepareWorkers);
+        for (int i = 1; i <= prepareWorkers; i++) {
+            stageThreads.add(newStageThread("jasper-report-prepare-"+i, () -> {
+                try {
+                    prepareReports(discoveredJobs, preparedReports, prepare);
+                    if (runningPrepareWorkers.decrementAndGet() == 0) preparedReports.put(END_OF_REPORTS);
+                } catch (InterruptedException e) {
+                    // The pipeline is being stopped
+                }
+            }));
+        }
+        stageThreads.forEach(Thread::start);
+
+        AtomicInteger workerIndex = new AtomicInteger();
+        // Not a fixed pool, a given up compile keeps its thread and the next report needs a new one
+        ExecutorService compileExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread worker = new Thread(runnable, "jasper-compile-worker-"+workerIndex.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+        ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread timeoutThread = new Thread(runnable, "jasper-compile-timeout");
+            timeoutThread.setDaemon(true);
+            return timeoutThread;
+        });
+        // One slot per running compile, the rest waits in the prepared queue
+        CompileSlots compileSlots = new CompileSlots(compileLimit);
+        try {
+            dispatchPreparedReports(preparedReports, compileExecutor, compileSlots, compile, newBatch, timeoutScheduler, timeout);
+            compileSlots.awaitIdle();
+            for (Thread stageThread : stageThreads) {
+                stageThread.join();
+            }
+        } catch (InterruptedException e) {
+            System.out.println("Compile pipeline interrupted...");
+            stageThreads.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+        } finally {
+            compileExecutor.shutdown();
+            timeoutScheduler.shutdownNow();
+        }
+    }
+
+    private void prepareReports(BlockingQueue<ReportCompileJob> discoveredJobs, BlockingQueue<PreparedReport> preparedReports,
+                                Function<ReportCompileJob, PreparedReport> prepare) throws InterruptedException {
+        while (true) {
+            ReportCompileJob compileJob = discoveredJobs.take();
+            if (compileJob == END_OF_JOBS) {
+                // Leave the marker for the other prepare workers
+                discoveredJobs.put(END_OF_JOBS);
+                return;
+            }
+            // A cancelled run still takes every job off the queue, so discovery is never left blocked
+            if (!compileControl.awaitRunning()) continue;
+            try {
+                PreparedReport preparedReport = prepare.apply(compileJob);
+                if (preparedReport != null) preparedReports.put(preparedReport);
+            } catch (RuntimeException e) {
+                System.out.println("Error in prepare worker... - "+e);
+            }
+        }
+    }
+
+    private void dispatchPreparedReports(BlockingQueue<PreparedReport> preparedReports, ExecutorService compileExecutor, CompileSlots compileSlots,
+                                         BiConsumer<PreparedReport, BatchExpressionCompiler.ExpressionBatch> compile,
+                                         IntFunction<BatchExpressionCompiler.ExpressionBatch> newBatch,
+                                         ScheduledExecutorService timeoutScheduler, Consumer<PreparedReport> timeout) throws InterruptedException {
+        boolean ended = false;
+        while (!ended) {
+            PreparedReport firstReport = preparedReports.take();
+            if (firstReport == END_OF_REPORTS) return;
+            if (!compileControl.awaitRunning()) continue;
+            List<PreparedReport> reportGroup = new ArrayList<>();
+            reportGroup.add(firstReport);
+            while (reportGroup.size() < expressionBatchSize) {
+                PreparedReport nextReport = preparedReports.poll(BATCH_FILL_MILLIS, TimeUnit.MILLISECONDS);
+                if (nextReport == null) break;
+                if (nextReport == END_OF_REPORTS) {
+                    ended = true;
+                    break;
+                }
+                reportGroup.add(nextReport);
+            }
+            BatchExpressionCompiler.ExpressionBatch expressionBatch = reportGroup.size() > 1 ? newBatch.apply(reportGroup.size()) : null;
+            for (PreparedReport preparedReport : reportGroup) {
+                compileSlots.acquire();
+                AtomicBoolean slotReleased = new AtomicBoolean();
+                Runnable releaseSlot = () -> {
+                    if (slotReleased.compareAndSet(false, true)) compileSlots.release();
+                };
+                compileExecutor.execute(() -> {
+                    ScheduledFuture<?> timeoutTask = reportTimeoutMillis <= 0 ? null : timeoutScheduler.schedule(() -> {
+                        if (preparedReport.isFinished()) return;
+                        timeout.accept(preparedReport);
+                        // The other reports of the batch would wait for it forever
+                        if (expressionBatch != null) expressionBatch.leave(preparedReport);
+                        releaseSlot.run();
+                    }, reportTimeoutMillis, TimeUnit.MILLISECONDS);
+                    try {
+                        compile.accept(preparedReport, expressionBatch);
+                    } catch (RuntimeException e) {
+                        System.out.println("Error in compile worker... - "+e);
+                    } finally {
+                        if (timeoutTask != null) timeoutTask.cancel(false);
+                        releaseSlot.run();
+                    }
+                });
+            }
+        }
+    }
+
+    private static void put(BlockingQueue<ReportCompileJob> discoveredJobs, ReportCompileJob compileJob) {
+        try {
+            discoveredJobs.put(compileJob);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StageInterruptedException();
+        }
+    }
+
+    private static Thread newStageThread(String name, Runnable stage) {
+        Thread stageThread = new Thread(stage, name);
+        stageThread.setDaemon(true);
+        return stageThread;
+    }
+
+    // Unwinds a discovery walk that is blocked on a full queue when the pipeline is stopped
+    private static class StageInterruptedException extends RuntimeException {
+    }
+
+    // Ends the discovery walk of a cancelled run
+    private static class DiscoveryCancelledException extends RuntimeException {
+    }
+}
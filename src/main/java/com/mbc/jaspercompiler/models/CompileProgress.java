@@ -0,0 +1,68 @@
+package com.mbc.jaspercompiler.models;
+
+import java.util.Objects;
+
+// Immutable snapshot of the compile counters, published by ProgressReporter.
+public class CompileProgress {
+    private final int totalFiles;
+    private final int currentCount;
+    private final int successCount;
+    private final int failCount;
+    private final int upToDateCount;
+    private final String currentFilename;
+
+    public CompileProgress(int totalFiles, int currentCount, int successCount, int failCount, int upToDateCount, String currentFilename) {
+        this.totalFiles = totalFiles;
+        this.currentCount = currentCount;
+        this.successCount = successCount;
+        this.failCount = failCount;
+        this.upToDateCount = upToDateCount;
+        this.currentFilename = currentFilename;
+    }
+
+    public int getTotalFiles() {
+        return totalFiles;
+    }
+
+    public int getCurrentCount() {
+        return currentCount;
+    }
+
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    public int getFailCount() {
+        return failCount;
+    }
+
+    public int getUpToDateCount() {
+        return upToDateCount;
+    }
+
+    public String getCurrentFilename() {
+        return currentFilename;
+    }
+
+    public double getFraction() {
+        return totalFiles == 0 ? 0 : (double) currentCount / totalFiles;
+    }
+
+    public int getPercentage() {
+        return (int) (getFraction() * 100);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CompileProgress)) return false;
+        CompileProgress that = (CompileProgress) o;
+        return totalFiles == that.totalFiles && currentCount == that.currentCount && successCount == that.successCount
+                && failCount == that.failCount && upToDateCount == that.upToDateCount && Objects.equals(currentFilename, that.currentFilename);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(totalFiles, currentCount, successCount, failCount, upToDateCount, currentFilename);
+    }
+}
@@ -0,0 +1,357 @@
+package com.mbc.jaspercompiler.models;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+// Keeps a warm JVM (JasperReports extensions, JDT, the JIT) for build scripts that compile a few reports at a time.
+// Listens on the loopback interface unless another bind address is given. Requests from a browser (with an Origin header)
+// are refused, so a web page cannot reach the server through localhost. With an access token every request but /status
+// has to carry it in the X-Compile-Token header, which is needed before binding to a network that is not trusted with
+// compiling any report path. Every request gets its own engine with the settings of engineTemplate.
+// Path requests compile one after the other, each run uses all the parallelism of its engine. Uploads run
+// next to them, they compile and log in a temporary directory of their own.
+//   POST /compile[?run=]      one jrxml path per line, streams back "STATUS<tab>path<tab>parse+compile millis[<tab>error]" per report and a SUMMARY line
+//   POST /cancel?run=         cancels the compile requests with that run id, their reports that did not start are not compiled
+//   POST /compile-jrxml?name= the jrxml itself, answers with the .jasper bytes or 422 and the compile error
+//   GET  /status              OK while the server is up
+//   POST /shutdown            stops the server
+public class CompileServer implements AutoCloseable {
+    public static final int DEFAULT_PORT = 9977;
+    public static final String ACCESS_TOKEN_HEADER = "X-Compile-Token";
+    // Read by the CLI, the client and the shard coordinator, so the token does not show up in process listings
+    public static final String ACCESS_TOKEN_VARIABLE = "JASPER_COMPILER_TOKEN";
+    private static final String WARM_UP_REPORT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<jasperReport xmlns=\"http://jasperreports.sourceforge.net/jasperreports\" name=\"warm_up\" pageWidth=\"595\" pageHeight=\"842\""
+            + " columnWidth=\"555\" leftMargin=\"20\" rightMargin=\"20\" topMargin=\"20\" bottomMargin=\"20\">\n"
+            + "<title><band height=\"20\"><textField><reportElement x=\"0\" y=\"0\" width=\"200\" height=\"20\"/>"
+            + "<textElement><font fontName=\"SansSerif\"/></textElement>"
+            + "<textFieldExpression><![CDATA[\"warm up \" + new java.util.Date()]]></textFieldExpression></textField></band></title>\n"
+            + "</jasperReport>\n";
+
+    private final JasperCompilerAPI engineTemplate;
+    private final InetAddress bindAddress;
+    private final int port;
+    // Path runs share the output, log files, metrics, history and manifest of the engine settings, so only one runs
+    // at a time. They wait here in arrival order, uploads, /status, /cancel and /shutdown always get a thread.
+    private final ReentrantLock compileRunLock = new ReentrantLock(true);
+    private final List<RunningCompile> runningCompiles = new CopyOnWriteArrayList<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private HttpServer httpServer;
+    private ExecutorService requestExecutor;
+    private String accessToken;
+
+    public CompileServer(JasperCompilerAPI engineTemplate, int port) {
+        this(engineTemplate, InetAddress.getLoopbackAddress(), port);
+    }
+
+    public CompileServer(JasperCompilerAPI engineTemplate, InetAddress bindAddress, int port) {
+        this.engineTemplate = engineTemplate;
+        this.bindAddress = bindAddress;
+        this.port = port;
+    }
+
+    // Null or blank lets every local or network client in that is not a browser
+    public void setAccessToken(String accessToken) {
+        this.accessToken = accessToken == null || accessToken.isBlank() ? null : accessToken;
+    }
+
+    public void start() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        httpServer.createContext("/compile", guarded(this::handleCompile, true));
+        httpServer.createContext("/compile-jrxml", guarded(this::handleCompileJrxml, true));
+        httpServer.createContext("/cancel", guarded(this::handleCancel, true));
+        httpServer.createContext("/status", guarded(exchange -> sendText(exchange, 200, "OK\n"), false));
+        httpServer.createContext("/shutdown", guarded(exchange -> {
+            sendText(exchange, 200, "Stopping\n");
+            new Thread(this::close, "jasper-compile-server-shutdown").start();
+        }, true));
+        AtomicInteger requestIndex = new AtomicInteger();
+        requestExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread requestThread = new Thread(runnable, "jasper-compile-server-"+requestIndex.incrementAndGet());
+            requestThread.setDaemon(true);
+            return requestThread;
+        });
+        httpServer.setExecutor(requestExecutor);
+        httpServer.start();
+        System.out.println("Compile server listening on http://"+bindAddress.getHostAddress()+":"+port);
+        if (accessToken == null && !bindAddress.isLoopbackAddress()) {
+            System.out.println("No access token set, anyone who can reach port "+port+" can compile and stop the server... - set "+ACCESS_TOKEN_VARIABLE);
+        }
+    }
+
+    // Compiles a small built-in report so the first real request does not pay for loading JasperReports and JDT
+    public void warmUp() {
+        try {
+            CompileResult warmUpResult = compileJrxml("warm_up.jrxml", WARM_UP_REPORT.getBytes(StandardCharsets.UTF_8));
+            if (warmUpResult.jasperContent == null) System.out.println("Warm up compile failed... - "+warmUpResult.errorMessage);
+        } catch (IOException e) {
+            System.out.println("Warm up compile failed... - "+e.getMessage());
+        }
+    }
+
+    public void awaitShutdown() throws InterruptedException {
+        stopped.await();
+    }
+
+    @Override
+    public void close() {
+        if (httpServer != null) httpServer.stop(1);
+        if (requestExecutor != null) requestExecutor.shutdown();
+        stopped.countDown();
+    }
+
+    private HttpHandler guarded(HttpHandler handler, boolean tokenRequired) {
+        return exchange -> {
+            if (exchange.getRequestHeaders().containsKey("Origin")) {
+                exchange.getRequestBody().readAllBytes();
+                sendText(exchange, 403, "Requests from web pages are not accepted\n");
+                return;
+            }
+            if (tokenRequired && accessToken != null && !isAccessToken(exchange.getRequestHeaders().getFirst(ACCESS_TOKEN_HEADER))) {
+                exchange.getRequestBody().readAllBytes();
+                sendText(exchange, 401, "Missing or wrong "+ACCESS_TOKEN_HEADER+" header\n");
+                return;
+            }
+            handler.handle(exchange);
+        };
+    }
+
+    private boolean isAccessToken(String requestToken) {
+        return requestToken != null
+                && MessageDigest.isEqual(requestToken.getBytes(StandardCharsets.UTF_8), accessToken.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void handleCompile(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendText(exchange, 405, "Use POST with one jrxml path per line\n");
+            return;
+        }
+        List<Path> sourceFiles = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) sourceFiles.add(Paths.get(line.trim()));
+            }
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer writer = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+            JasperCompilerAPI engine = engineTemplate.copySettings(engineTemplate.getJrxmlFilesDirectory(), engineTemplate.getJasperOutputDirectory());
+            ResultStreamer resultStreamer = new ResultStreamer(writer, engine.getCompileControl());
+            engine.addCompileListener(resultStreamer);
+            // Registered before waiting for its turn, a request can be cancelled while it waits
+            RunningCompile runningCompile = new RunningCompile(queryParameter(exchange, "run", ""), engine.getCompileControl());
+            engine.addCompileListener(runningCompile);
+            runningCompiles.add(runningCompile);
+            compileRunLock.lock();
+            CompileSummary compileSummary;
+            try {
+                compileSummary = engine.compileReports(sourceFiles);
+            } finally {
+                compileRunLock.unlock();
+                runningCompiles.remove(runningCompile);
+            }
+            resultStreamer.writeLine("SUMMARY\t"+compileSummary);
+        }
+    }
+
+    private void handleCancel(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendText(exchange, 405, "Use POST with the run id as query parameter\n");
+            return;
+        }
+        exchange.getRequestBody().readAllBytes();
+        String runId = queryParameter(exchange, "run", "");
+        int cancelledRequests = 0;
+        for (RunningCompile runningCompile : runningCompiles) {
+            if (!runId.isEmpty() && runningCompile.runId.equals(runId)) {
+                runningCompile.cancel();
+                cancelledRequests++;
+            }
+        }
+        sendText(exchange, 200, "Cancelled "+cancelledRequests+" requests\n");
+    }
+
+    private void handleCompileJrxml(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendText(exchange, 405, "Use POST with the jrxml as the request body\n");
+            return;
+        }
+        String reportFilename = queryParameter(exchange, "name", "report.jrxml");
+        CompileResult compileResult = compileJrxml(reportFilename, exchange.getRequestBody().readAllBytes());
+        if (compileResult.jasperContent == null) {
+            sendText(exchange, 422, compileResult.errorMessage+"\n");
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(200, compileResult.jasperContent.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(compileResult.jasperContent);
+        }
+    }
+
+    private CompileResult compileJrxml(String reportFilename, byte[] jrxmlContent) throws IOException {
+        // Only the file name is used, the report never leaves the temporary directory
+        String jrxmlFilename = Paths.get(reportFilename).getFileName().toString();
+        if (!jrxmlFilename.toLowerCase().endsWith(".jrxml")) jrxmlFilename += ".jrxml";
+        Path workDirectory = Files.createTempDirectory("jasper-compile-server");
+        try {
+            Path jrxmlDirectory = Files.createDirectory(workDirectory.resolve("jrxml"));
+            Path jasperDirectory = Files.createDirectory(workDirectory.resolve("jasper"));
+            Path sourceFile = Files.write(jrxmlDirectory.resolve(jrxmlFilename), jrxmlContent);
+            JasperCompilerAPI engine = engineTemplate.copySettings(jrxmlDirectory.toString(), jasperDirectory.toString());
+            engine.setRecursiveMode(false);
+            engine.setIncrementalMode(false);
+            engine.setDependencyMode(false);
+            engine.setAffectToOriginalJrxmlFiles(false);
+            engine.setBundleFile(null, false);
+            engine.setLogDirectory(Files.createDirectory(workDirectory.resolve("logs")));
+            engine.setPrometheusMetricsFile(null);
+            AtomicReference<String> errorMessage = new AtomicReference<>("Compile failed");
+            engine.addCompileListener(new CompileListener() {
+                @Override
+                public void onReportCompiled(Path compiledFile, ReportCompileStatus status, String error) {
+                    if (error != null) errorMessage.set(error);
+                }
+            });
+            engine.compileReports(List.of(sourceFile));
+            Path jasperFile = jasperDirectory.resolve(jrxmlFilename.substring(0, jrxmlFilename.length() - ".jrxml".length())+".jasper");
+            if (!Files.exists(jasperFile)) return new CompileResult(null, errorMessage.get());
+            return new CompileResult(Files.readAllBytes(jasperFile), null);
+        } finally {
+            deleteDirectory(workDirectory);
+        }
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name, String defaultValue) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return defaultValue;
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0 && parameter.substring(0, separator).equals(name)) {
+                return URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return defaultValue;
+    }
+
+    private static void sendText(HttpExchange exchange, int statusCode, String text) throws IOException {
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(statusCode, content.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(content);
+        }
+    }
+
+    private static void deleteDirectory(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            System.out.println("Failed to delete "+directory+" - "+e.getMessage());
+        }
+    }
+
+    private static class CompileResult {
+        private final byte[] jasperContent;
+        private final String errorMessage;
+
+        private CompileResult(byte[] jasperContent, String errorMessage) {
+            this.jasperContent = jasperContent;
+            this.errorMessage = errorMessage;
+        }
+    }
+
+    private static class RunningCompile implements CompileListener {
+        private final String runId;
+        private final CompileControl compileControl;
+        private volatile boolean cancelled;
+
+        private RunningCompile(String runId, CompileControl compileControl) {
+            this.runId = runId;
+            this.compileControl = compileControl;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            compileControl.cancel();
+        }
+
+        // Starting the run resets the control, a cancel that came before is applied again
+        @Override
+        public void onCompileStarted(int totalFiles) {
+            if (cancelled) compileControl.cancel();
+        }
+    }
+
+    // Writes every result as soon as the report is done, so the client sees progress on long requests
+    private static class ResultStreamer implements CompileListener {
+        private final Writer writer;
+        private final CompileControl compileControl;
+        // Parse and compile time only, a shard coordinator adds it up as the compile time of the report
+        private final Map<Path, Long> workerNanos = new ConcurrentHashMap<>();
+        private boolean clientGone;
+
+        private ResultStreamer(Writer writer, CompileControl compileControl) {
+            this.writer = writer;
+            this.compileControl = compileControl;
+        }
+
+        @Override
+        public void onReportTimed(Path sourceFile, ReportTiming reportTiming) {
+            workerNanos.put(sourceFile, reportTiming.getNanos(CompilePhase.PARSE) + reportTiming.getNanos(CompilePhase.COMPILE));
+        }
+
+        @Override
+        public void onReportCompiled(Path sourceFile, ReportCompileStatus status, String errorMessage) {
+            Long reportNanos = workerNanos.remove(sourceFile);
+            long durationMillis = reportNanos == null ? 0 : TimeUnit.NANOSECONDS.toMillis(reportNanos);
+            String line = status+"\t"+sourceFile+"\t"+durationMillis;
+            if (errorMessage != null) line += "\t"+errorMessage.replaceAll("\\s*[\\r\\n]+\\s*", " ");
+            writeLine(line);
+        }
+
+        private synchronized void writeLine(String line) {
+            if (clientGone) return;
+            try {
+                writer.write(line);
+                writer.write('\n');
+                writer.flush();
+            } catch (IOException e) {
+                // Nobody is left to tell, the client gave up on the run
+                clientGone = true;
+                compileControl.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.mbc.jaspercompiler.models;
+
+import java.util.function.IntSupplier;
+
+// Bounds the compiles that run at the same time. The limit is read on every acquire, so it can be changed
+// while the run goes on (AdaptiveConcurrencyController). Lowering it never stops a running compile, new
+// ones just wait until enough have finished.
+class CompileSlots {
+    // A raised limit is noticed within this time even if no compile finishes
+    private static final long LIMIT_POLL_MILLIS = 100;
+
+    private final IntSupplier limit;
+    private int running;
+
+    CompileSlots(IntSupplier limit) {
+        this.limit = limit;
+    }
+
+    synchronized void acquire() throws InterruptedException {
+        while (running >= Math.max(1, limit.getAsInt())) {
+            wait(LIMIT_POLL_MILLIS);
+        }
+        running++;
+    }
+
+    synchronized void release() {
+        running--;
+        notifyAll();
+    }
+
+    synchronized int getRunning() {
+        return running;
+    }
+
+    // Every slot back means every compile has finished or was given up
+    synchronized void awaitIdle() throws InterruptedException {
+        while (running > 0) {
+            wait();
+        }
+    }
+}
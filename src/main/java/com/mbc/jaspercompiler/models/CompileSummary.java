@@ -0,0 +1,87 @@
+package com.mbc.jaspercompiler.models;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class CompileSummary {
+    private final int totalFiles;
+    private final int successCount;
+    private final int failCount;
+    private final int upToDateCount;
+    private final long elapsedMillis;
+    private final CompileMetrics compileMetrics;
+    private final boolean cancelled;
+    private final int notCompiledCount;
+    private final Map<String, Long> rewriteHits;
+    private final int savedCompiles;
+
+    public CompileSummary(int totalFiles, int successCount, int failCount, int upToDateCount, long elapsedMillis, CompileMetrics compileMetrics,
+                          boolean cancelled, int notCompiledCount, Map<String, Long> rewriteHits, int savedCompiles) {
+        this.totalFiles = totalFiles;
+        this.successCount = successCount;
+        this.failCount = failCount;
+        this.upToDateCount = upToDateCount;
+        this.elapsedMillis = elapsedMillis;
+        this.compileMetrics = compileMetrics;
+        this.cancelled = cancelled;
+        this.notCompiledCount = notCompiledCount;
+        this.rewriteHits = rewriteHits;
+        this.savedCompiles = savedCompiles;
+    }
+
+    public int getTotalFiles() {
+        return totalFiles;
+    }
+
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    public int getFailCount() {
+        return failCount;
+    }
+
+    public int getUpToDateCount() {
+        return upToDateCount;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public CompileMetrics getCompileMetrics() {
+        return compileMetrics;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Reports that were found but dropped by the cancel
+    public int getNotCompiledCount() {
+        return notCompiledCount;
+    }
+
+    // Changes made per rewrite rule, by rule spec in rule order
+    public Map<String, Long> getRewriteHits() {
+        return rewriteHits;
+    }
+
+    // Reports that got the output of a report with the same content instead of their own compile
+    public int getSavedCompiles() {
+        return savedCompiles;
+    }
+
+    public boolean hasFailures() {
+        return failCount > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Total: "+totalFiles+", Success: "+successCount+", Failed: "+failCount+", Up to date: "+upToDateCount
+                +(cancelled ? ", Cancelled, not compiled: "+notCompiledCount : "")+", Time: "+elapsedMillis+" ms"
+                +(rewriteHits.isEmpty() ? "" : ", Rewrites: "+rewriteHits.entrySet().stream()
+                        .map(rewriteHit -> rewriteHit.getKey()+": "+rewriteHit.getValue()).collect(Collectors.joining(", ")))
+                +(savedCompiles > 0 ? ", Compiles saved by deduplication: "+savedCompiles : "");
+    }
+}
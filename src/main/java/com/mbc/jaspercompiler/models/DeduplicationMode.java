@@ -0,0 +1,10 @@
+package com.mbc.jaspercompiler.models;
+
+public enum DeduplicationMode {
+    // Every report is compiled, even when another one has the same content
+    OFF,
+    // Reports with the same rewritten content are compiled once, the others get a copy of its .jasper
+    COPY,
+    // As COPY, but the .jasper files are hard links to the first one where the file system allows it
+    HARD_LINK
+}
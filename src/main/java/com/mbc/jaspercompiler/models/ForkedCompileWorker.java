@@ -0,0 +1,102 @@
+package com.mbc.jaspercompiler.models;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.design.JasperDesign;
+import net.sf.jasperreports.engine.util.JRSaver;
+import net.sf.jasperreports.engine.xml.JRXmlLoader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+
+// The main class of a worker JVM started by ForkedWorkerPool. Reads one report at a time from stdin, compiles it
+// and answers on stdout, until stdin is closed or the pool asks it to exit. Everything JasperReports prints goes
+// to stderr, stdout only carries the answers.
+//   request   COMPILE, jrxml block  |  EXIT
+//   answer    status, parse nanos, compile nanos, .jasper block or error block, retained bytes
+public class ForkedCompileWorker {
+    static final int REQUEST_EXIT = 0;
+    static final int REQUEST_COMPILE = 1;
+    static final int STATUS_SUCCESS = 0;
+    static final int STATUS_FAILED = 1;
+
+    public static void main(String[] args) throws IOException {
+        DataInputStream requests = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream answers = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err);
+        int compiledReports = 0;
+        while (true) {
+            int request;
+            try {
+                request = requests.readUnsignedByte();
+            } catch (EOFException e) {
+                // The parent is gone
+                return;
+            }
+            if (request == REQUEST_EXIT) return;
+            byte[] jrxmlContent = readBlock(requests);
+            long parseNanos = 0;
+            long compileNanos = 0;
+            byte[] jasperContent = null;
+            String errorMessage = null;
+            try {
+                long phaseStartTime = System.nanoTime();
+                JasperDesign jasperDesign = JRXmlLoader.load(new ByteArrayInputStream(jrxmlContent));
+                parseNanos = System.nanoTime() - phaseStartTime;
+                phaseStartTime = System.nanoTime();
+                JasperReport jasperReport = JasperCompileManager.compileReport(jasperDesign);
+                compileNanos = System.nanoTime() - phaseStartTime;
+                ByteArrayOutputStream jasperOutput = new ByteArrayOutputStream();
+                JRSaver.saveObject(jasperReport, jasperOutput);
+                jasperContent = jasperOutput.toByteArray();
+            } catch (JRException | RuntimeException e) {
+                errorMessage = e.getMessage() == null ? e.toString() : e.getMessage();
+            }
+            // The first report loads most of what stays for the life of the worker, a collection after it
+            // makes that the baseline the pool measures the growth against
+            if (++compiledReports == 1) System.gc();
+            answers.writeByte(jasperContent != null ? STATUS_SUCCESS : STATUS_FAILED);
+            answers.writeLong(parseNanos);
+            answers.writeLong(compileNanos);
+            writeBlock(answers, jasperContent != null ? jasperContent : errorMessage.getBytes(StandardCharsets.UTF_8));
+            answers.writeLong(retainedBytes());
+            answers.flush();
+        }
+    }
+
+    static void writeBlock(DataOutputStream output, byte[] block) throws IOException {
+        output.writeInt(block.length);
+        output.write(block);
+    }
+
+    static byte[] readBlock(DataInputStream input) throws IOException {
+        byte[] block = new byte[input.readInt()];
+        input.readFully(block);
+        return block;
+    }
+
+    // Heap still in use after the last collection plus the metaspace of the generated expression classes
+    private static long retainedBytes() {
+        long retainedBytes = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = memoryPool.getType() == MemoryType.HEAP ? memoryPool.getCollectionUsage()
+                    : "Metaspace".equals(memoryPool.getName()) ? memoryPool.getUsage() : null;
+            if (usage != null) retainedBytes += usage.getUsed();
+        }
+        return retainedBytes;
+    }
+}
@@ -0,0 +1,247 @@
+package com.mbc.jaspercompiler.models;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Compiles reports in worker JVMs (ForkedCompileWorker) instead of this one, so the expression classes and the
+// metaspace of thousands of reports never pile up in one heap. A worker compiles one report at a time, the pool
+// starts a new one whenever every worker is busy, so it grows to the number of compile slots.
+// A worker is replaced after recycleAfterReports reports or once its retained heap and metaspace grew by more
+// than recycleAfterHeapBytes since its first report. A worker that dies fails only the report it was compiling,
+// the next report gets a fresh one. Everything the workers print goes to JasperReportWorkers.txt in the log directory.
+class ForkedWorkerPool implements Closeable {
+    static final String WORKER_LOG_FILENAME = "JasperReportWorkers.txt";
+    private static final long EXIT_WAIT_SECONDS = 10;
+
+    private final int recycleAfterReports;
+    private final long recycleAfterHeapBytes;
+    private final Path workerLogFile;
+    private final Deque<WorkerProcess> idleWorkers = new ArrayDeque<>();
+    private final Map<Object, WorkerProcess> busyWorkers = new ConcurrentHashMap<>();
+    private final AtomicInteger startedWorkers = new AtomicInteger();
+    private final AtomicInteger recycledWorkers = new AtomicInteger();
+    private final AtomicInteger crashedWorkers = new AtomicInteger();
+    private final AtomicInteger abortedWorkers = new AtomicInteger();
+    private boolean closed;
+
+    ForkedWorkerPool(int recycleAfterReports, long recycleAfterHeapBytes, Path logDirectory) {
+        this.recycleAfterReports = Math.max(1, recycleAfterReports);
+        this.recycleAfterHeapBytes = Math.max(1, recycleAfterHeapBytes);
+        this.workerLogFile = logDirectory.resolve(WORKER_LOG_FILENAME);
+    }
+
+    // owner identifies the report for abort, the result also carries the compile errors of the report itself.
+    // An IOException means the worker died or was aborted.
+    Result compile(Object owner, byte[] jrxmlContent) throws IOException {
+        WorkerProcess worker = borrow();
+        busyWorkers.put(owner, worker);
+        Result result;
+        try {
+            result = worker.compile(jrxmlContent);
+        } catch (IOException e) {
+            String exitDescription = worker.exitDescription();
+            worker.destroy();
+            if (worker.aborted) {
+                abortedWorkers.incrementAndGet();
+                throw new IOException("Compile worker "+worker.number+" was stopped");
+            }
+            crashedWorkers.incrementAndGet();
+            throw new IOException("Compile worker "+worker.number+" "+exitDescription+" while compiling the report");
+        } finally {
+            busyWorkers.remove(owner);
+        }
+        giveBack(worker);
+        return result;
+    }
+
+    // Kills the worker that is compiling for owner, its compile call fails right away
+    void abort(Object owner) {
+        WorkerProcess worker = busyWorkers.remove(owner);
+        if (worker == null) return;
+        worker.aborted = true;
+        worker.process.destroyForcibly();
+    }
+
+    @Override
+    public void close() {
+        List<WorkerProcess> stoppedWorkers;
+        synchronized (this) {
+            closed = true;
+            stoppedWorkers = new ArrayList<>(idleWorkers);
+            idleWorkers.clear();
+        }
+        stoppedWorkers.addAll(busyWorkers.values());
+        stoppedWorkers.forEach(WorkerProcess::exit);
+        stoppedWorkers.forEach(WorkerProcess::awaitExit);
+        if (startedWorkers.get() > 0) {
+            System.out.println("Compile workers: "+startedWorkers.get()+" started, "+recycledWorkers.get()+" recycled, "
+                    +crashedWorkers.get()+" crashed, "+abortedWorkers.get()+" stopped");
+        }
+    }
+
+    private WorkerProcess borrow() throws IOException {
+        synchronized (this) {
+            if (closed) throw new IOException("Compile worker pool is closed");
+            WorkerProcess worker = idleWorkers.pollFirst();
+            if (worker != null) return worker;
+        }
+        return startWorker();
+    }
+
+    private void giveBack(WorkerProcess worker) {
+        String recycleReason = null;
+        if (worker.compiledReports >= recycleAfterReports) {
+            recycleReason = worker.compiledReports+" reports";
+        } else if (worker.retainedGrowth() > recycleAfterHeapBytes) {
+            recycleReason = "retained memory grew by "+(worker.retainedGrowth() / (1024 * 1024))+" MB";
+        }
+        if (recycleReason == null) {
+            synchronized (this) {
+                if (!closed) {
+                    idleWorkers.addFirst(worker);
+                    return;
+                }
+            }
+        } else {
+            recycledWorkers.incrementAndGet();
+            System.out.println("Recycling compile worker "+worker.number+" after "+recycleReason);
+        }
+        // The exit is not waited for, the process ends on its own once it reads it
+        worker.exit();
+    }
+
+    private WorkerProcess startWorker() throws IOException {
+        int number = startedWorkers.incrementAndGet();
+        Files.createDirectories(workerLogFile.toAbsolutePath().getParent());
+        Process process = new ProcessBuilder(JavaCommand.of(ForkedCompileWorker.class))
+                .redirectOutput(ProcessBuilder.Redirect.PIPE)
+                .redirectInput(ProcessBuilder.Redirect.PIPE)
+                .redirectError(ProcessBuilder.Redirect.appendTo(workerLogFile.toFile()))
+                .start();
+        return new WorkerProcess(number, process);
+    }
+
+    static class Result {
+        private final byte[] jasperContent;
+        private final String errorMessage;
+        private final long parseNanos;
+        private final long compileNanos;
+
+        private Result(byte[] jasperContent, String errorMessage, long parseNanos, long compileNanos) {
+            this.jasperContent = jasperContent;
+            this.errorMessage = errorMessage;
+            this.parseNanos = parseNanos;
+            this.compileNanos = compileNanos;
+        }
+
+        boolean isSuccess() {
+            return jasperContent != null;
+        }
+
+        // The serialized JasperReport, null when the report failed
+        byte[] getJasperContent() {
+            return jasperContent;
+        }
+
+        String getErrorMessage() {
+            return errorMessage;
+        }
+
+        long getParseNanos() {
+            return parseNanos;
+        }
+
+        long getCompileNanos() {
+            return compileNanos;
+        }
+    }
+
+    private static class WorkerProcess {
+        private final int number;
+        private final Process process;
+        private final DataOutputStream requests;
+        private final DataInputStream answers;
+        private int compiledReports;
+        private long baselineRetainedBytes = -1;
+        private long retainedBytes;
+        private volatile boolean aborted;
+
+        private WorkerProcess(int number, Process process) {
+            this.number = number;
+            this.process = process;
+            this.requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            this.answers = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+
+        private Result compile(byte[] jrxmlContent) throws IOException {
+            requests.writeByte(ForkedCompileWorker.REQUEST_COMPILE);
+            ForkedCompileWorker.writeBlock(requests, jrxmlContent);
+            requests.flush();
+            int status = answers.readUnsignedByte();
+            long parseNanos = answers.readLong();
+            long compileNanos = answers.readLong();
+            byte[] block = ForkedCompileWorker.readBlock(answers);
+            retainedBytes = answers.readLong();
+            if (++compiledReports == 1) baselineRetainedBytes = retainedBytes;
+            return status == ForkedCompileWorker.STATUS_SUCCESS
+                    ? new Result(block, null, parseNanos, compileNanos)
+                    : new Result(null, new String(block, StandardCharsets.UTF_8), parseNanos, compileNanos);
+        }
+
+        private long retainedGrowth() {
+            return baselineRetainedBytes < 0 ? 0 : retainedBytes - baselineRetainedBytes;
+        }
+
+        private void exit() {
+            try {
+                requests.writeByte(ForkedCompileWorker.REQUEST_EXIT);
+                requests.close();
+            } catch (IOException e) {
+                process.destroyForcibly();
+            }
+        }
+
+        private void awaitExit() {
+            try {
+                if (!process.waitFor(EXIT_WAIT_SECONDS, TimeUnit.SECONDS)) process.destroyForcibly();
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // The answer stream can end a moment before the process is gone
+        private String exitDescription() {
+            try {
+                if (process.waitFor(1, TimeUnit.SECONDS)) return "exited with code "+process.exitValue();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "stopped answering";
+        }
+
+        private void destroy() {
+            process.destroyForcibly();
+            try {
+                process.waitFor(EXIT_WAIT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -1,53 +1,89 @@
 package com.mbc.jaspercompiler.models;
 
-import javafx.application.Platform;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
-import javafx.concurrent.Task;
-import javafx.scene.control.Label;
-import javafx.scene.control.ProgressBar;
+import net.sf.jasperreports.engine.DefaultJasperReportsContext;
 import net.sf.jasperreports.engine.JRException;
 import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.design.JasperDesign;
+import net.sf.jasperreports.engine.util.JRSaver;
+import net.sf.jasperreports.engine.xml.JRXmlLoader;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
 
 public class JasperCompilerAPI {
-    private String COMPILE_REPORT_LOG_FILE_PATH = "C:\\ProgramData\\JasperReportCompileLogs.txt";
-    private String COMPILE_ERROR_LOG_FILE_PATH = "C:\\ProgramData\\JasperReportCompileErrors.txt";
-    private String COMPILE_FAIL_LIST_LOG_FILE_PATH = "C:\\ProgramData\\JasperReportCompileFailList.txt";
-    private int totalFilesToCompile = 0;
-    private int currentCompileFilesCount = 0;
-    private int successCompileFilesCount = 0;
-    private int failCompileFilesCount = 0;
-    private String currentJrxmlCompileFilename = null;
+    private Path logDirectory = CompileLogWriter.defaultLogDirectory();
+    private CompileLogFormat logFormat = CompileLogFormat.TEXT;
+    private CompileLogWriter compileLogWriter;
+    private CompileMetrics compileMetrics;
+    private int slowestReportCount = 20;
+    private Path prometheusMetricsFile;
+    private volatile int totalFilesToCompile = 0;
+    private final AtomicInteger currentCompileFilesCount = new AtomicInteger();
+    private final AtomicInteger successCompileFilesCount = new AtomicInteger();
+    private final AtomicInteger failCompileFilesCount = new AtomicInteger();
+    private volatile String currentJrxmlCompileFilename = null;
+    private int parallelism = 1;
+    private int expressionBatchSize = 1;
+    private BatchExpressionCompiler batchExpressionCompiler;
     private String fontName = "mbc";
     private final String jrxmlFilesDirectory;
     private final String jasperOuputDirectory;
-    private Label compilingLabel;
-    private Label currentCompiledLabel;
-    private Label totalCompileIndexLabel;
-    private Label compileFilenameLabel;
-    private Label totalCompileLabel;
-    private Label successCompileLabel;
-    private Label failCompileLabel;
-    private ProgressBar progressBar;
-    private Label percentLabel;
-    private Thread progressBarThread;
+    private final List<CompileListener> compileListeners = new CopyOnWriteArrayList<>();
+    private long progressIntervalMillis = 100;
     private boolean affectToOriginalJrxmlFiles;
     private boolean highPerformanceMode;
     private boolean recursiveMode;
-    private File jrxmlTempChangeDirectory;
-    private ObservableList<String> recursiveJrxmlFilenameList;
+    private boolean incrementalMode;
+    private CompileManifest compileManifest;
+    private List<RewriteRule> rewriteRules = Collections.emptyList();
+    private ReportRewriter reportRewriter;
+    private String rewriteKey;
+    private final AtomicInteger upToDateFilesCount = new AtomicInteger();
+    private int pipelineQueueCapacity = 64;
+    private boolean dependencyMode;
+    private List<String> shardWorkerUrls = Collections.emptyList();
+    private ShardStrategy shardStrategy = ShardStrategy.SIZE_BALANCED;
+    private String shardAccessToken;
+    private ReportDependencyGraph dependencyGraph;
+    // Up-to-date reports that still have to be compiled because one of their subreports changed
+    private Set<Path> forcedReports = Collections.emptySet();
+    private boolean validationMode;
+    private boolean validateOnly;
+    private boolean strictReferences;
+    private ReportValidator reportValidator;
+    private Path bundleFile;
+    private boolean bundleCompression;
+    private ReportBundleWriter reportBundleWriter;
+    private boolean resumeMode = true;
+    private CompileJournal compileJournal;
+    private final CompileControl compileControl = new CompileControl();
+    private long reportTimeoutMillis;
+    private boolean adaptiveConcurrency;
+    private int minParallelism = 1;
+    private int maxParallelism = Runtime.getRuntime().availableProcessors();
+    private AdaptiveConcurrencyController concurrencyController;
+    private boolean forkedMode;
+    private int recycleWorkerAfterReports = 500;
+    private int recycleWorkerAfterHeapMegabytes = 256;
+    private ForkedWorkerPool forkedWorkerPool;
+    private ScheduleOrder scheduleOrder = ScheduleOrder.DISCOVERY;
+    private CompileHistory compileHistory;
+    private DeduplicationMode deduplicationMode = DeduplicationMode.COPY;
+    private ReportDeduplicator reportDeduplicator;
 
     public JasperCompilerAPI(String jrxmlFilesDirectory) {
         this(jrxmlFilesDirectory, null);
-        recursiveJrxmlFilenameList = FXCollections.observableArrayList();
     }
 
     public JasperCompilerAPI(String jrxmlFilesDirectory, String jasperOutputDirectory) {
@@ -56,295 +92,812 @@ public class JasperCompilerAPI {
         this.affectToOriginalJrxmlFiles = false;
     }
 
-    public JasperCompilerAPI(String jrxmlFilesDirectory, String jasperOutputDirectory, Label compilingLabel,
-                             Label currentCompiledLabel, Label totalCompileIndexLabel, Label compileFilenameLabel, Label totalCompileLabel,
-                             Label successCompileLabel, Label failCompileLabel, ProgressBar progressBar, Label percentLabel) {
-        this.jrxmlFilesDirectory = jrxmlFilesDirectory;
-        this.jasperOuputDirectory = jasperOutputDirectory;
-        this.affectToOriginalJrxmlFiles = false;
-        this.compilingLabel = compilingLabel;
-        this.currentCompiledLabel = currentCompiledLabel;
-        this.totalCompileIndexLabel = totalCompileIndexLabel;
-        this.compileFilenameLabel = compileFilenameLabel;
-        this.totalCompileLabel = totalCompileLabel;
-        this.successCompileLabel = successCompileLabel;
-        this.failCompileLabel = failCompileLabel;
-        this.progressBar = progressBar;
-        this.percentLabel = percentLabel;
-        recursiveJrxmlFilenameList = FXCollections.observableArrayList();
+    // A new engine with the same settings for other directories, listeners are not copied
+    public JasperCompilerAPI copySettings(String jrxmlFilesDirectory, String jasperOutputDirectory) {
+        JasperCompilerAPI copy = new JasperCompilerAPI(jrxmlFilesDirectory, jasperOutputDirectory);
+        copy.logDirectory = logDirectory;
+        copy.logFormat = logFormat;
+        copy.slowestReportCount = slowestReportCount;
+        copy.prometheusMetricsFile = prometheusMetricsFile;
+        copy.parallelism = parallelism;
+        copy.expressionBatchSize = expressionBatchSize;
+        copy.fontName = fontName;
+        copy.rewriteRules = rewriteRules;
+        copy.progressIntervalMillis = progressIntervalMillis;
+        copy.affectToOriginalJrxmlFiles = affectToOriginalJrxmlFiles;
+        copy.highPerformanceMode = highPerformanceMode;
+        copy.recursiveMode = recursiveMode;
+        copy.incrementalMode = incrementalMode;
+        copy.dependencyMode = dependencyMode;
+        copy.pipelineQueueCapacity = pipelineQueueCapacity;
+        copy.shardWorkerUrls = shardWorkerUrls;
+        copy.shardStrategy = shardStrategy;
+        copy.shardAccessToken = shardAccessToken;
+        copy.validationMode = validationMode;
+        copy.validateOnly = validateOnly;
+        copy.strictReferences = strictReferences;
+        copy.bundleFile = bundleFile;
+        copy.bundleCompression = bundleCompression;
+        copy.resumeMode = resumeMode;
+        copy.reportTimeoutMillis = reportTimeoutMillis;
+        copy.adaptiveConcurrency = adaptiveConcurrency;
+        copy.minParallelism = minParallelism;
+        copy.maxParallelism = maxParallelism;
+        copy.forkedMode = forkedMode;
+        copy.recycleWorkerAfterReports = recycleWorkerAfterReports;
+        copy.recycleWorkerAfterHeapMegabytes = recycleWorkerAfterHeapMegabytes;
+        copy.scheduleOrder = scheduleOrder;
+        copy.deduplicationMode = deduplicationMode;
+        return copy;
     }
 
+    public void addCompileListener(CompileListener compileListener) {
+        compileListeners.add(compileListener);
+    }
 
+    public void removeCompileListener(CompileListener compileListener) {
+        compileListeners.remove(compileListener);
+    }
 
     public int getTotalJrxmlFiles() {
-        return getListOfJrxmlFilenameList(jrxmlFilesDirectory).size();
+        return newReportDiscovery().count();
     }
     public int getTotalFilesToCompile() {
         return totalFilesToCompile;
     }
     public int getCurrentCompileFilesCount() {
-        return currentCompileFilesCount;
+        return currentCompileFilesCount.get();
     }
     public int getSuccessCompileFilesCount() {
-        return successCompileFilesCount;
+        return successCompileFilesCount.get();
     }
     public int getFailCompileFilesCount() {
-        return failCompileFilesCount;
+        return failCompileFilesCount.get();
+    }
+    public int getUpToDateFilesCount() {
+        return upToDateFilesCount.get();
+    }
+    public String getCurrentJrxmlCompileFilename() {
+        return currentJrxmlCompileFilename;
     }
-    public Thread getProgressBarThread() { return progressBarThread; }
     public boolean isRecursiveMode() {
         return recursiveMode;
     }
     public void setRecursiveMode(boolean recursiveMode) {
         this.recursiveMode = recursiveMode;
     }
+    public boolean isIncrementalMode() {
+        return incrementalMode;
+    }
+    // Skip reports whose source, font and JasperReports version match the last successful compile.
+    public void setIncrementalMode(boolean incrementalMode) {
+        this.incrementalMode = incrementalMode;
+    }
 
     public void setHighPerformanceMode(boolean set) {
         highPerformanceMode = set;
     }
 
-    public void compileAndExportReport() {
-        jrxmlTempChangeDirectory = new File(jrxmlFilesDirectory+"\\jrxml_temp_change");
-        jrxmlTempChangeDirectory.mkdir();
-        initialize();
-        if (recursiveMode) {
-            makeChangesUsingRecursive(new File(jrxmlFilesDirectory));
-            compileUsingRecursive();
-        }
-        else {
-            makeChangesWithoutRecursive();
-            compileReportWithoutRecursive();
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    // How often listeners get a progress snapshot, intermediate changes are dropped.
+    public void setProgressIntervalMillis(long progressIntervalMillis) {
+        this.progressIntervalMillis = Math.max(10, progressIntervalMillis);
+    }
+
+    public CompileProgress getCompileProgress() {
+        return new CompileProgress(totalFilesToCompile, currentCompileFilesCount.get(), successCompileFilesCount.get(),
+                failCompileFilesCount.get(), upToDateFilesCount.get(), currentJrxmlCompileFilename);
+    }
+
+    // Number of compile workers, 1 keeps the old one-file-at-a-time behaviour.
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    // Let AdaptiveConcurrencyController move the number of compile workers between min and max while a run goes on,
+    // starting at the parallelism. The decisions go to the log directory.
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency, int minParallelism, int maxParallelism) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+        this.minParallelism = Math.max(1, minParallelism);
+        this.maxParallelism = Math.max(this.minParallelism, maxParallelism);
+    }
+
+    public boolean isForkedMode() {
+        return forkedMode;
+    }
+
+    // Compile every report in a pool of worker JVMs (ForkedWorkerPool) instead of this one. A worker is replaced after
+    // the given number of reports or once its retained memory grew by the given megabytes, a crashed worker only
+    // fails the report it was compiling. Expression batches need the reports in one JVM and are not used with it.
+    public void setForkedMode(boolean forkedMode, int recycleWorkerAfterReports, int recycleWorkerAfterHeapMegabytes) {
+        this.forkedMode = forkedMode;
+        this.recycleWorkerAfterReports = Math.max(1, recycleWorkerAfterReports);
+        this.recycleWorkerAfterHeapMegabytes = Math.max(1, recycleWorkerAfterHeapMegabytes);
+    }
+
+    public ScheduleOrder getScheduleOrder() {
+        return scheduleOrder;
+    }
+
+    // The order reports are handed to the compile workers, every order but DISCOVERY waits for the whole walk first.
+    // The CompileHistory is only loaded, recorded and saved when the order uses it, also in shard mode.
+    public void setScheduleOrder(ScheduleOrder scheduleOrder) {
+        this.scheduleOrder = scheduleOrder;
+    }
+
+    public int getExpressionBatchSize() {
+        return expressionBatchSize;
+    }
+
+    // Number of Java reports whose expression classes are compiled in one JDT invocation, 1 compiles every report on its own.
+    public void setExpressionBatchSize(int expressionBatchSize) {
+        this.expressionBatchSize = Math.max(1, expressionBatchSize);
+    }
+
+    public boolean isValidationMode() {
+        return validationMode;
+    }
+
+    // Validate every rewritten report (ReportValidator) before it is compiled, invalid reports fail right away
+    public void setValidationMode(boolean validationMode) {
+        this.validationMode = validationMode;
+    }
+
+    public boolean isValidateOnly() {
+        return validateOnly;
+    }
+
+    // Only validate, nothing is compiled or written and every report is checked, the manifest is not used.
+    // Valid reports count as SUCCESS.
+    public void setValidateOnly(boolean validateOnly) {
+        this.validateOnly = validateOnly;
+    }
+
+    // Fail reports whose literal subreport or template references do not exist, instead of only logging them
+    public void setStrictReferences(boolean strictReferences) {
+        this.strictReferences = strictReferences;
+    }
+
+    public Path getBundleFile() {
+        return bundleFile;
+    }
+
+    // Write every compiled report into this one bundle file (ReportBundleWriter) instead of single .jasper files,
+    // null writes .jasper files again. In incremental mode the bundle is updated in place, otherwise it is rewritten.
+    // Bundles are only written by local compiles, shard workers are not used for them.
+    public void setBundleFile(Path bundleFile, boolean bundleCompression) {
+        this.bundleFile = bundleFile;
+        this.bundleCompression = bundleCompression;
+    }
+
+    // Skip the reports an interrupted run with the same settings already finished (CompileJournal). Without it
+    // a full run always starts from scratch, the journal of the new run is still written.
+    public void setResumeMode(boolean resumeMode) {
+        this.resumeMode = resumeMode;
+    }
+
+    // Cancel, pause and resume the current run from any thread. A cancelled run still returns its (partial) summary.
+    public CompileControl getCompileControl() {
+        return compileControl;
+    }
+
+    // A report whose parse and compile take longer fails and its worker moves on, 0 waits forever
+    public void setReportTimeoutMillis(long reportTimeoutMillis) {
+        this.reportTimeoutMillis = Math.max(0, reportTimeoutMillis);
+    }
+
+    public CompileSummary compileAndExportReport() {
+        long startTime = System.currentTimeMillis();
+        initialize(false);
+        if (validateOnly) return compileJobs(() -> runPipeline(this::discoverReports), startTime);
+        if (!shardWorkerUrls.isEmpty() && reportBundleWriter == null) return compileJobs(this::compileOnShardWorkers, startTime);
+        if (dependencyMode) return compileJobs(this::compileInDependencyOrder, startTime);
+        return compileJobs(scheduleOrder == ScheduleOrder.DISCOVERY ? () -> runPipeline(this::discoverReports) : this::compileInScheduledOrder, startTime);
+    }
+
+    // Compiles only the given reports with the current settings, the log files are appended to instead of
+    // being recreated. Used by watch mode to recompile what changed without walking the whole tree.
+    public CompileSummary compileReports(Collection<Path> sourceFiles) {
+        long startTime = System.currentTimeMillis();
+        initialize(true);
+        totalFilesToCompile = sourceFiles.size();
+        if (dependencyMode && dependencyGraph != null && !validateOnly) {
+            return compileJobs(() -> compileWithDependents(sourceFiles), startTime);
         }
-        if ( affectToOriginalJrxmlFiles ) deleteTempChangeDirectory();
-        compilingLabel.setText("All reports compiled successfully...");
+        List<ReportCompileJob> compileJobs = new ArrayList<>(sourceFiles.size());
+        sourceFiles.forEach(sourceFile -> compileJobs.add(toCompileJob(sourceFile)));
+        return compileJobs(() -> runPipeline(schedule(compileJobs)::forEach), startTime);
     }
 
-    private void initialize() {
-        totalFilesToCompile = 0;
-        currentCompileFilesCount = 0;
-        successCompileFilesCount = 0;
-        failCompileFilesCount = 0;
+    public boolean isDependencyMode() {
+        return dependencyMode;
+    }
+
+    // Compile subreports before the reports that use them, level by level, and recompile the reports that use a
+    // changed subreport. Needs the whole report set up front, so discovery no longer overlaps with compiling.
+    public void setDependencyMode(boolean dependencyMode) {
+        this.dependencyMode = dependencyMode;
+    }
+
+    // Hand the reports of compileAndExportReport to these compile servers (http://host:port) instead of compiling them here.
+    // The results, logs, manifest and summary are the same as for a local run. An empty list compiles locally again.
+    // The access token is sent to workers that require one (CompileServer.setAccessToken), null for none.
+    public void setShardWorkers(List<String> shardWorkerUrls, ShardStrategy shardStrategy, String shardAccessToken) {
+        this.shardWorkerUrls = new ArrayList<>(shardWorkerUrls);
+        this.shardStrategy = shardStrategy;
+        this.shardAccessToken = shardAccessToken;
+    }
+
+    // The graph of the last dependency-mode run, null before the first one
+    public ReportDependencyGraph getDependencyGraph() {
+        return dependencyGraph;
+    }
+
+    // Bounds the reports waiting between the pipeline stages, discovery pauses while the queues are full
+    public void setPipelineQueueCapacity(int pipelineQueueCapacity) {
+        this.pipelineQueueCapacity = Math.max(1, pipelineQueueCapacity);
+    }
+
+    private CompileSummary compileJobs(Runnable compileRun, long startTime) {
+        ProgressReporter progressReporter = new ProgressReporter(this::getCompileProgress, compileListeners, progressIntervalMillis);
+        progressReporter.start();
+        long compileRunStartTime = System.nanoTime();
+        boolean completed = false;
+        CompileSummary compileSummary;
         try {
-            File errorLogFile = new File(COMPILE_ERROR_LOG_FILE_PATH);
-            File failListLogFile = new File(COMPILE_FAIL_LIST_LOG_FILE_PATH);
-            File compileLogFile = new File(COMPILE_REPORT_LOG_FILE_PATH);
-            if (errorLogFile.exists()) errorLogFile.delete();
-            if(failListLogFile.exists()) failListLogFile.delete();
-            if(compileLogFile.exists()) compileLogFile.delete();
-            errorLogFile.createNewFile();
-            failListLogFile.createNewFile();
-            compileLogFile.createNewFile();
-        } catch(IOException ioe) {
-            System.out.println("Failed to create or delete log files... - "+ioe.getMessage());
+            // The total keeps growing while discovery runs next to the compile workers
+            compileListeners.forEach(listener -> listener.onCompileStarted(totalFilesToCompile));
+            if (adaptiveConcurrency) {
+                concurrencyController = new AdaptiveConcurrencyController(parallelism, minParallelism, maxParallelism);
+                concurrencyController.start();
+            }
+            if (forkedMode && !validateOnly) {
+                forkedWorkerPool = new ForkedWorkerPool(recycleWorkerAfterReports, recycleWorkerAfterHeapMegabytes * 1024L * 1024L, logDirectory);
+            }
+            compileRunStartTime = System.nanoTime();
+            compileRun.run();
+            completed = true;
+        } finally {
+            // Also after an unexpected error, no thread or worker JVM is left behind and the listeners hear the run ended
+            compileSummary = endRun(progressReporter, startTime, System.nanoTime() - compileRunStartTime, completed);
         }
+        return compileSummary;
     }
 
-    private void compileReportWithoutRecursive() {
-        startProgressBarThread();
-        getListOfJrxmlFilenameList(jrxmlTempChangeDirectory.getAbsolutePath()).forEach(jrxmlChangedFilename -> {
-            String sourceJrxmlFilePath = jrxmlTempChangeDirectory.getAbsolutePath()+"\\"+jrxmlChangedFilename;
-            String targetJasperFilePath = jasperOuputDirectory+"\\"+jrxmlChangedFilename.replace("_temp_changed.jrxml", ".jasper");
-            currentJrxmlCompileFilename = jrxmlFilesDirectory+"\\"+jrxmlChangedFilename.replace("_temp_changed.jrxml", ".jrxml");
-            updateUI();
-            try {
-                if (!highPerformanceMode) Thread.sleep(new Random().nextInt(3000));
-                JasperCompileManager.compileReportToFile(sourceJrxmlFilePath, targetJasperFilePath);
-                successCompileFilesCount++;
-                logFileExporter(jrxmlChangedFilename, COMPILE_REPORT_LOG_FILE_PATH);
-            } catch (JRException e) {
-                failCompileFilesCount++;
-                logFileExporter(jrxmlChangedFilename+" - "+e.getMessage(), COMPILE_ERROR_LOG_FILE_PATH);
-                logFileExporter(jrxmlChangedFilename, COMPILE_FAIL_LIST_LOG_FILE_PATH);
-            } catch (InterruptedException e) {
-                System.out.println("Error in sleep thread...");
+    private CompileSummary endRun(ProgressReporter progressReporter, long startTime, long compileRunNanos, boolean completed) {
+        if (forkedWorkerPool != null) {
+            forkedWorkerPool.close();
+            forkedWorkerPool = null;
+        }
+        if (concurrencyController != null) {
+            concurrencyController.stop();
+            concurrencyController.writeDecisions(logDirectory);
+            concurrencyController = null;
+        }
+        progressReporter.stop();
+        boolean outputComplete = closeReportBundle();
+        // Without the bundle the recorded stamps point at entries that were never written
+        if ( compileManifest != null && outputComplete ) compileManifest.save();
+        if ( compileJournal != null ) {
+            // A cancelled or failed run is picked up again by the next one
+            if (compileControl.isCancelled() || !completed) {
+                compileJournal.close();
+            } else {
+                compileJournal.finish();
             }
-            if ( affectToOriginalJrxmlFiles ) {
-                new File(sourceJrxmlFilePath).delete();
+        }
+        if ( compileHistory != null ) {
+            long predictedMakespanNanos = compileHistory.predictMakespanNanos(parallelism);
+            compileMetrics.recordMakespan(predictedMakespanNanos, compileRunNanos);
+            if (predictedMakespanNanos >= 0) {
+                System.out.println(String.format(Locale.ROOT, "Predicted compile time %.1f s, actual %.1f s",
+                        predictedMakespanNanos / 1e9, compileRunNanos / 1e9));
+            }
+            compileHistory.save();
+        } else {
+            compileMetrics.recordMakespan(-1, compileRunNanos);
+        }
+        compileLogWriter.close();
+        compileMetrics.writeSummary(logDirectory, slowestReportCount, prometheusMetricsFile);
+        CompileSummary compileSummary = new CompileSummary(totalFilesToCompile, successCompileFilesCount.get(), failCompileFilesCount.get(),
+                upToDateFilesCount.get(), System.currentTimeMillis() - startTime, compileMetrics,
+                compileControl.isCancelled(), Math.max(0, totalFilesToCompile - currentCompileFilesCount.get()), reportRewriter.getRuleHits(),
+                reportDeduplicator != null ? reportDeduplicator.getSavedCompiles() : 0);
+        compileListeners.forEach(listener -> listener.onCompileFinished(compileSummary));
+        return compileSummary;
+    }
+
+    private boolean closeReportBundle() {
+        if (reportBundleWriter == null) return true;
+        try {
+            reportBundleWriter.close();
+            return true;
+        } catch (IOException e) {
+            System.out.println("Failed to write report bundle "+reportBundleWriter.getBundleFile()+" - "+e.getMessage());
+            compileLogWriter.logError("Failed to write report bundle "+reportBundleWriter.getBundleFile()+" - "+e.getMessage());
+            return false;
+        }
+    }
+
+    private void runPipeline(Consumer<Consumer<ReportCompileJob>> discovery) {
+        // Reading and rewriting is cheap next to compiling, a few workers keep the compile stage fed.
+        // Validating is not, with it every worker helps so the invalid reports are known early.
+        int prepareWorkers = reportValidator != null ? parallelism : Math.max(1, parallelism / 4);
+        // With expression batches the extra workers let the next batches compile while one batch waits for its last report
+        int batchSize = forkedWorkerPool != null ? 1 : expressionBatchSize;
+        int compileWorkers = batchSize > 1 ? batchSize + parallelism - 1 : parallelism;
+        AdaptiveConcurrencyController controller = concurrencyController;
+        IntSupplier compileLimit = controller == null ? null
+                : () -> batchSize > 1 ? batchSize + controller.getLimit() - 1 : controller.getLimit();
+        CompilePipeline compilePipeline = new CompilePipeline(pipelineQueueCapacity, prepareWorkers, compileWorkers, batchSize,
+                compileControl, reportTimeoutMillis, compileLimit);
+        compilePipeline.run(discovery, this::prepareReport, this::compilePreparedReport,
+                batchSize > 1 ? batchExpressionCompiler::newBatch : null, this::timeOutReport);
+    }
+
+    // The up-to-date check stays here so the workers never share a manifest, they compile whatever they get
+    private void compileOnShardWorkers() {
+        ReportPathList reportPaths = discoverReportPaths();
+        ShardCoordinator shardCoordinator = new ShardCoordinator(shardWorkerUrls, shardStrategy, shardAccessToken, compileControl);
+        if (!dependencyMode) {
+            List<ReportCompileJob> compileJobs = new ArrayList<>();
+            reportPaths.forEach(sourceFile -> compileJobs.add(toCompileJob(sourceFile)));
+            compileOnShardWorkers(shardCoordinator, compileJobs);
+            return;
+        }
+        // Level by level as in a local run, the reports that use a changed subreport are sent along
+        dependencyGraph = new ReportDependencyGraph();
+        List<Path> changedReports = new ArrayList<>();
+        reportPaths.forEach(sourceFile -> addToDependencyGraph(toCompileJob(sourceFile), changedReports));
+        if ( compileManifest != null ) forcedReports = dependencyGraph.withDependents(changedReports);
+        reportDependencyProblems();
+        for (List<ReportCompileJob> compileLevel : dependencyGraph.getCompileLevels()) {
+            if (compileControl.isCancelled()) return;
+            compileOnShardWorkers(shardCoordinator, compileLevel);
+        }
+    }
+
+    private void compileOnShardWorkers(ShardCoordinator shardCoordinator, List<ReportCompileJob> compileJobs) {
+        List<ReportCompileJob> changedJobs = new ArrayList<>();
+        for (ReportCompileJob compileJob : compileJobs) {
+            byte[] jrxmlContent = readSource(compileJob);
+            boolean forced = forcedReports.contains(compileJob.getSourceFile().toAbsolutePath().normalize());
+            // Done before an interrupted run, as in a local run
+            boolean journalCompleted = compileJournal != null && jrxmlContent != null
+                    && compileJournal.isCompleted(compileJob.getSourceFile(), jrxmlContent) && Files.exists(compileJob.getJasperFile());
+            if (journalCompleted || (compileManifest != null && !forced && jrxmlContent != null && isOutputUpToDate(compileJob, jrxmlContent))) {
+                upToDateFilesCount.incrementAndGet();
+                finishReport(compileJob, new ReportTiming(compileJob.getSourceFile().toString()), System.nanoTime(), ReportCompileStatus.UP_TO_DATE, null);
+            } else {
+                changedJobs.add(compileJob);
             }
-            currentCompileFilesCount++;
-            System.out.println("Compiled reports successfully...");
-        });
-        Platform.runLater(()->compilingLabel.setText("all reports compiled successfully..."));
-        updateUI();
-    }
-
-    private void compileUsingRecursive() {
-        startProgressBarThread();
-        recursiveJrxmlFilenameList.forEach(this::compileReportAlgorithm);
-        Platform.runLater(()->compilingLabel.setText("all reports compiled successfully..."));
-        updateUI();
-    }
-    private void compileReportAlgorithm(String sourceFilePath) {
-        currentJrxmlCompileFilename = sourceFilePath;
-        String jasperFilePath = sourceFilePath.substring(0, sourceFilePath.lastIndexOf("."))+".jasper";
-        updateUI();
+        }
+        if (changedJobs.isEmpty()) return;
+        List<ReportCompileJob> unfinishedJobs = shardCoordinator.run(changedJobs, this::finishShardResult);
+        if (!unfinishedJobs.isEmpty() && !compileControl.isCancelled()) {
+            System.out.println("Compiling "+unfinishedJobs.size()+" reports of failed shard workers locally...");
+            runPipeline(unfinishedJobs::forEach);
+        }
+    }
+
+    // Null when the report cannot be read, the worker then reports the error
+    private static byte[] readSource(ReportCompileJob compileJob) {
         try {
-            if (!highPerformanceMode) Thread.sleep(new Random().nextInt(3000));
-            JasperCompileManager.compileReportToFile(sourceFilePath, jasperFilePath);
-            successCompileFilesCount++;
-            logFileExporter(sourceFilePath, COMPILE_REPORT_LOG_FILE_PATH);
-        } catch (JRException e) {
-            failCompileFilesCount++;
-            logFileExporter(sourceFilePath, COMPILE_FAIL_LIST_LOG_FILE_PATH);
-        } catch (InterruptedException e) {
-            System.out.println("Thread Sleep Interrupted Error...");
+            return Files.readAllBytes(compileJob.getSourceFile());
+        } catch (IOException e) {
+            return null;
         }
-        currentCompileFilesCount++;
-        System.out.println("Compiled reports successfully...");
     }
-    private void makeChangesWithoutRecursive() {
-        if (highPerformanceMode) {
-            getListOfJrxmlFilenameList(jrxmlFilesDirectory).parallelStream().forEach(jrxmlFileName -> {
+
+    private void finishShardResult(ReportCompileJob compileJob, ReportCompileStatus compileStatus, long durationMillis, String errorMessage) {
+        if (compileStatus == ReportCompileStatus.SUCCESS) {
+            successCompileFilesCount.incrementAndGet();
+            if ( compileManifest != null || compileJournal != null ) {
                 try {
-                    String jrxmlFilePath = jrxmlFilesDirectory+"\\"+jrxmlFileName;
-                    String jrxmlChangedFilepath = jrxmlTempChangeDirectory.getAbsolutePath()+"\\"+jrxmlFileName.substring(0, jrxmlFileName.lastIndexOf("."))+"_temp_changed.jrxml";
-                    BufferedReader bufferedReader = new BufferedReader(new FileReader(jrxmlFilePath));
-                    BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(jrxmlChangedFilepath));
-                    String readLine = null;
-                    while ( (readLine = bufferedReader.readLine()) != null ) {
-                        if ( readLine.contains("fontName")) {
-                            readLine = readLine.replaceAll("fontName=\"[^\"]*\"", "fontName=\""+fontName+"\"");
-                        }
-                        bufferedWriter.write(readLine.concat("\n"));
-                    }
-                    bufferedReader.close();
-                    bufferedWriter.close();
-                    if (affectToOriginalJrxmlFiles) {
-                        File originalJrxmlFile = new File(jrxmlFilePath);
-                        originalJrxmlFile.delete();
-                        File changedJrxmlFile = new File(jrxmlChangedFilepath);
-                        Path sourcePath = Paths.get(changedJrxmlFile.getAbsolutePath());
-                        Path destinationPath = Paths.get(originalJrxmlFile.getAbsolutePath());
-                        try {
-                            // Copy file to the destination, overwriting if necessary
-                            Files.copy(sourcePath, destinationPath, StandardCopyOption.REPLACE_EXISTING);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
+                    // Read after the worker is done, it may have rewritten the original
+                    byte[] diskContent = Files.readAllBytes(compileJob.getSourceFile());
+                    if ( compileManifest != null ) compileManifest.record(compileJob.getSourceFile(), diskContent, compileJob.getJasperFile(), rewriteKey);
+                    if ( compileJournal != null ) compileJournal.recordCompleted(compileJob.getSourceFile(), diskContent);
                 } catch (IOException e) {
-                    System.out.println("Error in make changes."+ e.getMessage());
-                    e.printStackTrace();
+                    System.out.println("Failed to read "+compileJob.getSourceFile()+" for the compile manifest and journal - "+e.getMessage());
                 }
-            });
+            }
+        } else if (compileStatus == ReportCompileStatus.UP_TO_DATE) {
+            upToDateFilesCount.incrementAndGet();
         } else {
-            getListOfJrxmlFilenameList(jrxmlFilesDirectory).forEach(jrxmlFileName -> {
-                try {
-                    String jrxmlFilePath = jrxmlFilesDirectory+"\\"+jrxmlFileName;
-                    String jrxmlChangedFilepath = jrxmlTempChangeDirectory.getAbsolutePath()+"\\"+jrxmlFileName.substring(0, jrxmlFileName.lastIndexOf("."))+"_temp_changed.jrxml";
-                    BufferedReader bufferedReader = new BufferedReader(new FileReader(jrxmlFilePath));
-                    BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(jrxmlChangedFilepath));
-                    String readLine = null;
-                    while ( (readLine = bufferedReader.readLine()) != null ) {
-                        if ( readLine.contains("fontName")) {
-                            readLine = readLine.replaceAll("fontName=\"[^\"]*\"", "fontName=\""+fontName+"\"");
-                        }
-                        bufferedWriter.write(readLine.concat("\n"));
-                    }
-                    bufferedReader.close();
-                    bufferedWriter.close();
-                    if (affectToOriginalJrxmlFiles) {
-                        File originalJrxmlFile = new File(jrxmlFilePath);
-                        originalJrxmlFile.delete();
-                        File changedJrxmlFile = new File(jrxmlChangedFilepath);
-                        Path sourcePath = Paths.get(changedJrxmlFile.getAbsolutePath());
-                        Path destinationPath = Paths.get(originalJrxmlFile.getAbsolutePath());
-                        try {
-                            // Copy file to the destination, overwriting if necessary
-                            Files.copy(sourcePath, destinationPath, StandardCopyOption.REPLACE_EXISTING);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                } catch (IOException e) {
-                    System.out.println("Error in make changes."+ e.getMessage());
-                    e.printStackTrace();
+            failCompileFilesCount.incrementAndGet();
+        }
+        ReportTiming reportTiming = new ReportTiming(compileJob.getSourceFile().toString());
+        long durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        reportTiming.add(CompilePhase.COMPILE, durationNanos);
+        if ( compileHistory != null && (compileStatus == ReportCompileStatus.SUCCESS || compileStatus == ReportCompileStatus.FAILED) ) {
+            try {
+                compileHistory.record(compileJob.getSourceFile(), durationNanos, Files.size(compileJob.getSourceFile()));
+            } catch (IOException e) {
+                System.out.println("Failed to read the size of "+compileJob.getSourceFile()+" for the compile history - "+e.getMessage());
+            }
+        }
+        currentJrxmlCompileFilename = compileJob.getSourceFile().toString();
+        finishReport(compileJob, reportTiming, System.nanoTime() - durationNanos, compileStatus, errorMessage);
+    }
+
+    private void compileInScheduledOrder() {
+        List<ReportCompileJob> compileJobs = new ArrayList<>();
+        discoverReportPaths().forEach(sourceFile -> compileJobs.add(toCompileJob(sourceFile)));
+        runPipeline(schedule(compileJobs)::forEach);
+    }
+
+    private List<ReportCompileJob> schedule(List<ReportCompileJob> compileJobs) {
+        if (compileHistory == null || scheduleOrder == ScheduleOrder.DISCOVERY) return compileJobs;
+        return compileHistory.plan(compileJobs, scheduleOrder == ScheduleOrder.RECENT_FIRST);
+    }
+
+    private void compileInDependencyOrder() {
+        ReportPathList reportPaths = discoverReportPaths();
+        dependencyGraph = new ReportDependencyGraph();
+        List<Path> changedReports = new ArrayList<>();
+        reportPaths.forEach(sourceFile -> addToDependencyGraph(toCompileJob(sourceFile), changedReports));
+        if ( compileManifest != null ) forcedReports = dependencyGraph.withDependents(changedReports);
+        reportDependencyProblems();
+        runCompileLevels(dependencyGraph.getCompileLevels());
+    }
+
+    private void compileWithDependents(Collection<Path> sourceFiles) {
+        List<Path> changedReports = new ArrayList<>();
+        sourceFiles.forEach(sourceFile -> addToDependencyGraph(toCompileJob(sourceFile), changedReports));
+        // Only a changed report forces its dependents, an event for an unchanged one stays up to date
+        forcedReports = dependencyGraph.withDependents(changedReports);
+        Set<Path> selectedReports = new LinkedHashSet<>(forcedReports);
+        sourceFiles.forEach(sourceFile -> selectedReports.add(sourceFile.toAbsolutePath().normalize()));
+        totalFilesToCompile = selectedReports.size();
+        compileListeners.forEach(listener -> listener.onTotalFilesChanged(totalFilesToCompile));
+        reportDependencyProblems();
+        runCompileLevels(dependencyGraph.getCompileLevels(selectedReports));
+    }
+
+    private void runCompileLevels(List<List<ReportCompileJob>> compileLevels) {
+        for (List<ReportCompileJob> compileLevel : compileLevels) {
+            if (compileControl.isCancelled()) return;
+            runPipeline(schedule(compileLevel)::forEach);
+        }
+    }
+
+    private void addToDependencyGraph(ReportCompileJob compileJob, List<Path> changedReports) {
+        byte[] jrxmlContent;
+        try {
+            jrxmlContent = Files.readAllBytes(compileJob.getSourceFile());
+        } catch (IOException e) {
+            // Still ordered and compiled, the prepare stage reports the read error
+            jrxmlContent = new byte[0];
+        }
+        dependencyGraph.addReport(compileJob, jrxmlContent);
+        if ( compileManifest == null || !isOutputUpToDate(compileJob, jrxmlContent) ) {
+            changedReports.add(compileJob.getSourceFile());
+        }
+    }
+
+    private void reportDependencyProblems() {
+        for (String missingReference : dependencyGraph.getMissingReferences()) {
+            System.out.println("Missing reference "+missingReference);
+            compileLogWriter.logError("Missing reference "+missingReference);
+        }
+        for (List<Path> cycle : dependencyGraph.getCycles()) {
+            System.out.println("Cyclic subreport references "+cycle);
+            compileLogWriter.logError("Cyclic subreport references "+cycle);
+        }
+    }
+
+    private void discoverReports(Consumer<ReportCompileJob> compileJobSink) {
+        long discoveryStartTime = System.nanoTime();
+        newReportDiscovery().forEach(sourceFile -> addDiscoveredJrxmlFile(sourceFile, compileJobSink));
+        compileMetrics.recordDiscovery(System.nanoTime() - discoveryStartTime);
+    }
+
+    // For the modes that need every report before the first compile, kept as folder + file name
+    private ReportPathList discoverReportPaths() {
+        long discoveryStartTime = System.nanoTime();
+        ReportPathList reportPaths = newReportDiscovery().collect();
+        compileMetrics.recordDiscovery(System.nanoTime() - discoveryStartTime);
+        totalFilesToCompile = reportPaths.size();
+        compileListeners.forEach(listener -> listener.onTotalFilesChanged(totalFilesToCompile));
+        return reportPaths;
+    }
+
+    private ReportDiscovery newReportDiscovery() {
+        Path sourceDirectory = Paths.get(jrxmlFilesDirectory);
+        return new ReportDiscovery(recursiveMode ? sourceDirectory.toAbsolutePath() : sourceDirectory, recursiveMode);
+    }
+
+    private void initialize(boolean appendToLogFiles) {
+        totalFilesToCompile = 0;
+        currentJrxmlCompileFilename = null;
+        currentCompileFilesCount.set(0);
+        successCompileFilesCount.set(0);
+        failCompileFilesCount.set(0);
+        upToDateFilesCount.set(0);
+        List<RewriteRule> rules = new ArrayList<>();
+        rules.add(RewriteRule.attribute(null, "fontName", null, fontName));
+        rules.addAll(rewriteRules);
+        reportRewriter = new ReportRewriter(rules);
+        rewriteKey = computeRewriteKey();
+        compileControl.reset();
+        compileManifest = null;
+        forcedReports = Collections.emptySet();
+        if (incrementalMode && !validateOnly) {
+            compileManifest = new CompileManifest(Paths.get(recursiveMode ? jrxmlFilesDirectory : jasperOuputDirectory));
+            compileManifest.load();
+        }
+        // Only full runs are journaled. A bundle is committed as a whole on close, so there is nothing to resume.
+        compileJournal = null;
+        if (!appendToLogFiles && bundleFile == null && !validateOnly) {
+            compileJournal = new CompileJournal(Paths.get(recursiveMode ? jrxmlFilesDirectory : jasperOuputDirectory),
+                    jrxmlFilesDirectory+"\t"+jasperOuputDirectory+"\t"+recursiveMode+"\t"+rewriteKey+"\t"+affectToOriginalJrxmlFiles);
+            int completedReports = compileJournal.open(resumeMode);
+            if (completedReports > 0) System.out.println("Resuming an interrupted run, "+completedReports+" reports are already done...");
+        }
+        compileHistory = null;
+        if (!validateOnly && scheduleOrder != ScheduleOrder.DISCOVERY) {
+            compileHistory = new CompileHistory(Paths.get(recursiveMode ? jrxmlFilesDirectory : jasperOuputDirectory));
+            compileHistory.load();
+        }
+        reportDeduplicator = deduplicationMode != DeduplicationMode.OFF && !validateOnly ? new ReportDeduplicator(this::finishDuplicate) : null;
+        compileLogWriter = new CompileLogWriter(logDirectory, logFormat, appendToLogFiles);
+        compileLogWriter.start();
+        compileMetrics = new CompileMetrics();
+        if ((validationMode || validateOnly) && (reportValidator == null || reportValidator.isStrictReferences() != strictReferences)) {
+            reportValidator = new ReportValidator(strictReferences);
+        } else if (!validationMode && !validateOnly) {
+            reportValidator = null;
+        }
+        // A full run drops the entries of reports that are gone, a run over some of the reports keeps them
+        reportBundleWriter = bundleFile != null && !validateOnly
+                ? new ReportBundleWriter(bundleFile, compileManifest != null || appendToLogFiles, !appendToLogFiles, bundleCompression) : null;
+        if (expressionBatchSize > 1 && batchExpressionCompiler == null) {
+            batchExpressionCompiler = new BatchExpressionCompiler(DefaultJasperReportsContext.getInstance());
+        }
+        // A report waiting for a batch mate that hangs gives up on the batch well before its own timeout
+        if (batchExpressionCompiler != null) batchExpressionCompiler.setMaxWaitMillis(reportTimeoutMillis / 2);
+    }
+
+    // Reads the source once and rewrites the font in memory, the original jrxml is overwritten only when
+    // affectToOriginalJrxmlFiles is set. Returns null when the report is already finished (up to date or failed).
+    private PreparedReport prepareReport(ReportCompileJob compileJob) {
+        Path sourcePath = compileJob.getSourceFile();
+        currentJrxmlCompileFilename = sourcePath.toString();
+        compileListeners.forEach(listener -> listener.onReportCompiling(sourcePath));
+        long compileStartTime = System.nanoTime();
+        ReportTiming reportTiming = new ReportTiming(sourcePath.toString());
+        try {
+            long phaseStartTime = System.nanoTime();
+            byte[] jrxmlContent = Files.readAllBytes(sourcePath);
+            endPhase(reportTiming, CompilePhase.READ, phaseStartTime);
+            if ( compileJournal != null && compileJournal.isCompleted(sourcePath, jrxmlContent) && Files.exists(compileJob.getJasperFile()) ) {
+                upToDateFilesCount.incrementAndGet();
+                finishReport(compileJob, reportTiming, compileStartTime, ReportCompileStatus.UP_TO_DATE, null);
+                return null;
+            }
+            boolean forced = forcedReports.contains(sourcePath.toAbsolutePath().normalize());
+            if ( compileManifest != null && !forced && isOutputUpToDate(compileJob, jrxmlContent) ) {
+                upToDateFilesCount.incrementAndGet();
+                finishReport(compileJob, reportTiming, compileStartTime, ReportCompileStatus.UP_TO_DATE, null);
+                return null;
+            }
+            if (!highPerformanceMode && !validateOnly) Thread.sleep(ThreadLocalRandom.current().nextInt(3000));
+            phaseStartTime = System.nanoTime();
+            ReportRewriter.Result rewriteResult = reportRewriter.rewrite(jrxmlContent);
+            boolean rewriteOriginal = affectToOriginalJrxmlFiles && !validateOnly && rewriteResult.isChanged();
+            // The rewrite buffer belongs to this thread, the compile stage gets its own copy
+            byte[] compileContent = rewriteResult.isChanged() ? rewriteResult.toByteArray() : jrxmlContent;
+            if ( rewriteOriginal ) AtomicFiles.write(sourcePath, compileContent);
+            byte[] diskContent = rewriteOriginal ? compileContent : jrxmlContent;
+            phaseStartTime = endPhase(reportTiming, CompilePhase.REWRITE, phaseStartTime);
+            if (reportValidator != null) {
+                ReportValidator.Result validationResult = reportValidator.validate(sourcePath, compileContent);
+                endPhase(reportTiming, CompilePhase.VALIDATE, phaseStartTime);
+                for (String warning : validationResult.getWarnings()) {
+                    compileLogWriter.logError(sourcePath+" - "+warning);
                 }
-            });
+                if (!validationResult.isValid()) {
+                    failCompileFilesCount.incrementAndGet();
+                    finishReport(compileJob, reportTiming, compileStartTime, ReportCompileStatus.FAILED,
+                            "Invalid report - "+String.join("; ", validationResult.getErrors()));
+                    return null;
+                }
+                if (validateOnly) {
+                    successCompileFilesCount.incrementAndGet();
+                    finishReport(compileJob, reportTiming, compileStartTime, ReportCompileStatus.SUCCESS, null);
+                    return null;
+                }
+            }
+            PreparedReport preparedReport = new PreparedReport(compileJob, reportTiming, compileStartTime, compileContent, diskContent);
+            // Same design after the rewrite as a report already seen, its .jasper is reused instead of compiled again
+            if ( reportDeduplicator != null && !reportDeduplicator.join(CompileManifest.hash(compileContent), preparedReport) ) return null;
+            return preparedReport;
+        } catch (IOException | RuntimeException e) {
+            failCompileFilesCount.incrementAndGet();
+            finishReport(compileJob, reportTiming, compileStartTime, ReportCompileStatus.FAILED, e.getMessage());
+        } catch (InterruptedException e) {
+            System.out.println("Thread Sleep Interrupted Error...");
+            Thread.currentThread().interrupt();
+            failCompileFilesCount.incrementAndGet();
+            finishReport(compileJob, reportTiming, compileStartTime, ReportCompileStatus.FAILED, "Interrupted");
         }
+        return null;
     }
 
-    private void makeChangesUsingRecursive(File sourceDirectory) {
-        if ( sourceDirectory.isDirectory() ) {
-            for ( File directory : Objects.requireNonNull(sourceDirectory.listFiles())) {
-                if ( directory.isDirectory() ) {
-                    makeChangesUsingRecursive(directory);
+    // Parses and compiles the rewritten report and only writes the .jasper
+    private void compilePreparedReport(PreparedReport preparedReport, BatchExpressionCompiler.ExpressionBatch expressionBatch) {
+        ReportCompileJob compileJob = preparedReport.getCompileJob();
+        ReportTiming reportTiming = preparedReport.getReportTiming();
+        ReportCompileStatus compileStatus = ReportCompileStatus.SUCCESS;
+        String errorMessage = null;
+        boolean joinedExpressionBatch = false;
+        try {
+            long phaseStartTime = System.nanoTime();
+            ByteArrayOutputStream jasperContent = new ByteArrayOutputStream();
+            if (forkedWorkerPool != null) {
+                ForkedWorkerPool.Result forkedResult = forkedWorkerPool.compile(preparedReport, preparedReport.getCompileContent());
+                reportTiming.add(CompilePhase.PARSE, forkedResult.getParseNanos());
+                reportTiming.add(CompilePhase.COMPILE, forkedResult.getCompileNanos());
+                phaseStartTime = System.nanoTime();
+                if (!forkedResult.isSuccess()) throw new JRException(forkedResult.getErrorMessage());
+                jasperContent.write(forkedResult.getJasperContent());
+            } else {
+                JasperDesign jasperDesign = JRXmlLoader.load(new ByteArrayInputStream(preparedReport.getCompileContent()));
+                phaseStartTime = endPhase(reportTiming, CompilePhase.PARSE, phaseStartTime);
+                JasperReport jasperReport;
+                if (expressionBatch != null) {
+                    joinedExpressionBatch = true;
+                    jasperReport = batchExpressionCompiler.compile(expressionBatch, preparedReport, jasperDesign);
                 } else {
-                    if (isJrxmlFile(directory.getAbsolutePath())) {
-                        recursiveJrxmlFilenameList.add(directory.getAbsolutePath());
-                        recursiveModeMakeChangesAlgorithm(directory.getAbsolutePath());
-                    }
+                    jasperReport = JasperCompileManager.compileReport(jasperDesign);
                 }
+                phaseStartTime = endPhase(reportTiming, CompilePhase.COMPILE, phaseStartTime);
+                JRSaver.saveObject(jasperReport, jasperContent);
             }
-        } else {
-            if (isJrxmlFile(sourceDirectory.getAbsolutePath())) {
-                recursiveJrxmlFilenameList.add(sourceDirectory.getAbsolutePath());
-                recursiveModeMakeChangesAlgorithm(sourceDirectory.getAbsolutePath());
+            // Given up by the timeout, the report has already failed and its output must not replace anything
+            if (preparedReport.isFinished()) return;
+            if (reportBundleWriter != null) {
+                long bundleStamp = reportBundleWriter.put(bundleEntryName(compileJob), jasperContent.toByteArray());
+                if ( compileManifest != null ) compileManifest.record(compileJob.getSourceFile(), preparedReport.getDiskContent(), bundleStamp, rewriteKey);
+            } else {
+                AtomicFiles.write(compileJob.getJasperFile(), jasperContent.toByteArray());
+                if ( compileJournal != null ) compileJournal.recordCompleted(compileJob.getSourceFile(), preparedReport.getDiskContent());
+                if ( compileManifest != null ) compileManifest.record(compileJob.getSourceFile(), preparedReport.getDiskContent(), compileJob.getJasperFile(), rewriteKey);
             }
+            endPhase(reportTiming, CompilePhase.WRITE, phaseStartTime);
+        } catch (JRException | IOException | RuntimeException e) {
+            // A broken report only fails itself, the other workers keep going
+            compileStatus = ReportCompileStatus.FAILED;
+            errorMessage = e.getMessage();
+        } finally {
+            // The rest of the batch waits until every report has either compiled or dropped out
+            if (expressionBatch != null && !joinedExpressionBatch) expressionBatch.leave(preparedReport);
         }
+        if (!preparedReport.markFinished()) return;
+        // The time the report held a compile worker, what the next run orders by
+        if ( compileHistory != null ) compileHistory.record(compileJob.getSourceFile(), reportTiming.getNanos(CompilePhase.PARSE)
+                + reportTiming.getNanos(CompilePhase.COMPILE) + reportTiming.getNanos(CompilePhase.WRITE), preparedReport.getDiskContent().length);
+        if (compileStatus == ReportCompileStatus.SUCCESS) {
+            successCompileFilesCount.incrementAndGet();
+        } else {
+            failCompileFilesCount.incrementAndGet();
+        }
+        finishReport(compileJob, reportTiming, preparedReport.getCompileStartTime(), compileStatus, errorMessage);
+        if ( reportDeduplicator != null ) reportDeduplicator.finish(preparedReport, compileStatus, errorMessage);
     }
 
-    private void recursiveModeMakeChangesAlgorithm(String path) {
-        try {
-            String jrxmlChangedFilepath = path.substring(0, path.lastIndexOf("."))+"_temp_changed.jrxml";
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(path));
-            BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(jrxmlChangedFilepath));
-            String readLine = null;
-            while ( (readLine = bufferedReader.readLine()) != null ) {
-                if ( readLine.contains("fontName")) {
-                    readLine = readLine.replaceAll("fontName=\"[^\"]*\"", "fontName=\""+fontName+"\"");
+    private void timeOutReport(PreparedReport preparedReport) {
+        if (!preparedReport.markFinished()) return;
+        // A worker JVM can be stopped, a compile in this one runs on
+        if (forkedWorkerPool != null) forkedWorkerPool.abort(preparedReport);
+        failCompileFilesCount.incrementAndGet();
+        String errorMessage = "Timed out after "+reportTimeoutMillis+" ms, compile given up";
+        finishReport(preparedReport.getCompileJob(), preparedReport.getReportTiming(), preparedReport.getCompileStartTime(),
+                ReportCompileStatus.FAILED, errorMessage);
+        if ( reportDeduplicator != null ) reportDeduplicator.finish(preparedReport, ReportCompileStatus.FAILED, errorMessage);
+    }
+
+    // A report with the same content as one that was compiled gets a copy of its output, or its failure
+    private void finishDuplicate(PreparedReport preparedReport, ReportDeduplicator.Original original) {
+        if (!preparedReport.markFinished()) return;
+        ReportCompileJob compileJob = preparedReport.getCompileJob();
+        ReportTiming reportTiming = preparedReport.getReportTiming();
+        ReportCompileStatus compileStatus = original.getCompileStatus();
+        String errorMessage = original.getErrorMessage();
+        if (compileStatus == ReportCompileStatus.SUCCESS) {
+            try {
+                long phaseStartTime = System.nanoTime();
+                if (reportBundleWriter != null) {
+                    long bundleStamp = reportBundleWriter.putDuplicate(bundleEntryName(compileJob), bundleEntryName(original.getCompileJob()));
+                    if ( compileManifest != null ) compileManifest.record(compileJob.getSourceFile(), preparedReport.getDiskContent(), bundleStamp, rewriteKey);
+                } else {
+                    AtomicFiles.copy(original.getCompileJob().getJasperFile(), compileJob.getJasperFile(), deduplicationMode == DeduplicationMode.HARD_LINK);
+                    if ( compileJournal != null ) compileJournal.recordCompleted(compileJob.getSourceFile(), preparedReport.getDiskContent());
+                    if ( compileManifest != null ) compileManifest.record(compileJob.getSourceFile(), preparedReport.getDiskContent(), compileJob.getJasperFile(), rewriteKey);
                 }
-                bufferedWriter.write(readLine.concat("\n"));
+                endPhase(reportTiming, CompilePhase.WRITE, phaseStartTime);
+            } catch (IOException | RuntimeException e) {
+                compileStatus = ReportCompileStatus.FAILED;
+                errorMessage = e.getMessage();
             }
-            bufferedReader.close();
-            bufferedWriter.close();
-            new File(path).delete();
-            new File(jrxmlChangedFilepath).renameTo(new File(jrxmlChangedFilepath.replace("_temp_changed.jrxml", ".jrxml")));
-        } catch (IOException e) {
-            System.out.println("Error in make changes."+ e.getMessage());
-            System.out.println("Filepath: "+path);
-            e.printStackTrace();
+        } else {
+            errorMessage = "Same content as "+original.getCompileJob().getSourceFile()+" - "+errorMessage;
         }
-        totalFilesToCompile++;
-        Platform.runLater(()-> totalCompileLabel.setText(String.valueOf(totalFilesToCompile)));
-        Platform.runLater(()-> totalCompileIndexLabel.setText(String.valueOf(totalFilesToCompile)));
+        if (compileStatus == ReportCompileStatus.SUCCESS) {
+            successCompileFilesCount.incrementAndGet();
+        } else {
+            failCompileFilesCount.incrementAndGet();
+        }
+        finishReport(compileJob, reportTiming, preparedReport.getCompileStartTime(), compileStatus, errorMessage);
     }
 
-    private boolean isJrxmlFile(String filePath) {
-        try {
-            return filePath.substring(filePath.lastIndexOf(".")).equalsIgnoreCase(".jrxml");
-        } catch (Exception e) {
-            return false;
+    private boolean isOutputUpToDate(ReportCompileJob compileJob, byte[] jrxmlContent) {
+        if (reportBundleWriter != null) {
+            long bundleStamp = reportBundleWriter.getStamp(bundleEntryName(compileJob));
+            return bundleStamp != -1 && compileManifest.isUpToDate(compileJob.getSourceFile(), jrxmlContent, bundleStamp, rewriteKey);
         }
+        return compileManifest.isUpToDate(compileJob.getSourceFile(), jrxmlContent, compileJob.getJasperFile(), rewriteKey);
     }
 
-    private void deleteTempChangeDirectory() {
-        try {
-            Files.delete(Paths.get(jrxmlTempChangeDirectory.getAbsolutePath()));
-        } catch (IOException e) {
-            logFileExporter("Fail to delete temp change directory"+jrxmlTempChangeDirectory.getAbsolutePath(), COMPILE_ERROR_LOG_FILE_PATH);
-        }
+    // The path of the .jasper relative to the source directory, with / as separator
+    private String bundleEntryName(ReportCompileJob compileJob) {
+        Path sourceDirectory = Paths.get(jrxmlFilesDirectory).toAbsolutePath().normalize();
+        Path sourceFile = compileJob.getSourceFile().toAbsolutePath().normalize();
+        Path relativeFile = sourceFile.startsWith(sourceDirectory) ? sourceDirectory.relativize(sourceFile) : sourceFile.getFileName();
+        return toSiblingJasperPath(relativeFile.toString().replace('\\', '/'));
     }
 
-    private List<String> getListOfJrxmlFilenameList(String sourceDir) {
-        List<String> jrxmlFileList = new ArrayList<>();
-        Path dirPath = Paths.get(sourceDir);
-        try (Stream<Path> paths = Files.walk(dirPath, 1)) {
-            paths.filter(Files::isRegularFile)
-                    .forEach(path -> {
-                        System.out.println(path.getFileName());
-                        // Get file extension...
-                        String fileExtension = path.getFileName().toString().substring(path.getFileName().toString().lastIndexOf("."));
-                        if (fileExtension.equalsIgnoreCase(".jrxml")) {
-                            jrxmlFileList.add(path.getFileName().toString());
-                        }
-                    });
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        if ( totalFilesToCompile == 0 ) totalFilesToCompile = jrxmlFileList.size();
-//        updateUI();
-        return jrxmlFileList;
+    private void finishReport(ReportCompileJob compileJob, ReportTiming reportTiming, long compileStartTime,
+                              ReportCompileStatus compileStatus, String errorMessage) {
+        Path sourcePath = compileJob.getSourceFile();
+        // Like a .jasper file, the entry of a failed report stays as it was after the last good compile
+        if (reportBundleWriter != null && compileStatus != ReportCompileStatus.SUCCESS) reportBundleWriter.keep(bundleEntryName(compileJob));
+        reportTiming.setStatus(compileStatus);
+        compileMetrics.record(reportTiming);
+        compileLogWriter.log(new CompileLogEntry(sourcePath.toString(), compileStatus,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - compileStartTime), errorMessage));
+        currentCompileFilesCount.incrementAndGet();
+        compileListeners.forEach(listener -> listener.onReportTimed(sourcePath, reportTiming));
+        compileListeners.forEach(listener -> listener.onReportCompiled(sourcePath, compileStatus, errorMessage));
+    }
+
+    private static long endPhase(ReportTiming reportTiming, CompilePhase phase, long phaseStartTime) {
+        long now = System.nanoTime();
+        reportTiming.add(phase, now - phaseStartTime);
+        return now;
+    }
+
+    // Handed straight to the pipeline, the compile workers start on the first report while the walk goes on
+    private void addDiscoveredJrxmlFile(Path sourceFile, Consumer<ReportCompileJob> compileJobSink) {
+        totalFilesToCompile++;
+        compileListeners.forEach(listener -> listener.onTotalFilesChanged(totalFilesToCompile));
+        compileJobSink.accept(toCompileJob(sourceFile));
+    }
+
+    private ReportCompileJob toCompileJob(Path sourceFile) {
+        String jasperFilename = toSiblingJasperPath(sourceFile.getFileName().toString());
+        Path jasperFile = recursiveMode ? sourceFile.resolveSibling(jasperFilename) : Paths.get(jasperOuputDirectory, jasperFilename);
+        return new ReportCompileJob(sourceFile, jasperFile);
+    }
+
+    public String getJrxmlFilesDirectory() {
+        return jrxmlFilesDirectory;
+    }
+
+    public String getJasperOutputDirectory() {
+        return jasperOuputDirectory;
+    }
+
+    private String toSiblingJasperPath(String jrxmlFilePath) {
+        return jrxmlFilePath.substring(0, jrxmlFilePath.lastIndexOf("."))+".jasper";
     }
 
     public void setAffectToOriginalJrxmlFiles(boolean set) {
@@ -355,48 +908,52 @@ public class JasperCompilerAPI {
         this.fontName = fontName;
     }
 
-    public void updateUI() {
-        Platform.runLater(() -> {
-            compilingLabel.setText("compiling reports...");
-            currentCompiledLabel.setText(String.valueOf(currentCompileFilesCount));
-            totalCompileIndexLabel.setText(String.valueOf(totalFilesToCompile));
-            compileFilenameLabel.setText(currentJrxmlCompileFilename);
-            totalCompileLabel.setText(String.valueOf(totalFilesToCompile));
-            successCompileLabel.setText(String.valueOf(successCompileFilesCount));
-            failCompileLabel.setText(String.valueOf(failCompileFilesCount));
-            percentLabel.setText(String.valueOf(getCurrentCompilePercentage()).concat("%"));
-            System.out.println(getCurrentCompilePercentage());
-        });
+    public List<RewriteRule> getRewriteRules() {
+        return rewriteRules;
     }
 
-    private int getCurrentCompilePercentage() {
-        return (int)(((double)currentCompileFilesCount/(double)totalFilesToCompile)*100);
+    // Applied after the fontName rule in the same pass (ReportRewriter), the run summary counts the changes of every rule
+    public void setRewriteRules(List<RewriteRule> rewriteRules) {
+        this.rewriteRules = new ArrayList<>(rewriteRules);
     }
 
-    private void startProgressBarThread() {
-        Task<Void> task = new Task<Void>() {
-            @Override
-            protected Void call() throws Exception {
-                while(currentCompileFilesCount <= totalFilesToCompile) {
-                    updateProgress(currentCompileFilesCount, totalFilesToCompile);
-                }
-                return null;
-            }
-        };
-        Platform.runLater(() -> progressBar.progressProperty().bind(task.progressProperty()));
+    public DeduplicationMode getDeduplicationMode() {
+        return deduplicationMode;
+    }
 
-        // Run the task on a background thread
-        progressBarThread = new Thread(task);
-        progressBarThread.setDaemon(true);  // The thread will terminate when the application ends
-        progressBarThread.start();
+    // Reports with the same content after the rewrite are compiled once per run, the others get a copy or a hard link
+    public void setDeduplicationMode(DeduplicationMode deduplicationMode) {
+        this.deduplicationMode = deduplicationMode;
     }
 
-    private void logFileExporter(String filename, String filePath) {
-        try(BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(filePath,true))) {
-            bufferedWriter.write(filename+"\n");
-        } catch (IOException ioe) {
-            System.out.println("Error while exporting compile log file "+filePath);
-        }
+    // Recorded in the manifest, a report compiled with other rules is out of date. Only the font name without
+    // extra rules, so manifests from before the rules keep working.
+    private String computeRewriteKey() {
+        if (rewriteRules.isEmpty()) return fontName;
+        StringBuilder specs = new StringBuilder();
+        rewriteRules.forEach(rule -> specs.append(rule.getSpec()).append('\n'));
+        return fontName+"+"+CompileManifest.hash(specs.toString().getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+    }
+
+    public Path getLogDirectory() {
+        return logDirectory;
+    }
+
+    public void setLogDirectory(Path logDirectory) {
+        this.logDirectory = logDirectory;
+    }
+
+    public void setLogFormat(CompileLogFormat logFormat) {
+        this.logFormat = logFormat;
+    }
+
+    // How many of the slowest reports go into the end-of-run metrics summary
+    public void setSlowestReportCount(int slowestReportCount) {
+        this.slowestReportCount = Math.max(0, slowestReportCount);
+    }
 
+    // Optional Prometheus text-format file, written next to the JSON/CSV summary at the end of a run
+    public void setPrometheusMetricsFile(Path prometheusMetricsFile) {
+        this.prometheusMetricsFile = prometheusMetricsFile;
     }
 }
@@ -0,0 +1,30 @@
+package com.mbc.jaspercompiler.models;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// The command line that starts mainClass in a new JVM with the same java and the same class path or module path
+// as this process. Used for the forked compile workers and the local shard workers.
+public final class JavaCommand {
+    private JavaCommand() {
+    }
+
+    public static List<String> of(Class<?> mainClass) {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command()
+                .orElse(Paths.get(System.getProperty("java.home"), "bin", "java").toString()));
+        String modulePath = System.getProperty("jdk.module.path");
+        if (modulePath != null && mainClass.getModule().isNamed()) {
+            command.add("-p");
+            command.add(modulePath);
+            command.add("-m");
+            command.add(mainClass.getModule().getName()+"/"+mainClass.getName());
+        } else {
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(mainClass.getName());
+        }
+        return command;
+    }
+}
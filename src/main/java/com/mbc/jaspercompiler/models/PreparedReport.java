@@ -0,0 +1,52 @@
+package com.mbc.jaspercompiler.models;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// A report that has been read and rewritten and is waiting for the compile stage of the pipeline
+class PreparedReport {
+    private final ReportCompileJob compileJob;
+    private final ReportTiming reportTiming;
+    private final long compileStartTime;
+    private final byte[] compileContent;
+    private final byte[] diskContent;
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    PreparedReport(ReportCompileJob compileJob, ReportTiming reportTiming, long compileStartTime, byte[] compileContent, byte[] diskContent) {
+        this.compileJob = compileJob;
+        this.reportTiming = reportTiming;
+        this.compileStartTime = compileStartTime;
+        this.compileContent = compileContent;
+        this.diskContent = diskContent;
+    }
+
+    ReportCompileJob getCompileJob() {
+        return compileJob;
+    }
+
+    ReportTiming getReportTiming() {
+        return reportTiming;
+    }
+
+    long getCompileStartTime() {
+        return compileStartTime;
+    }
+
+    // The rewritten jrxml that is handed to JasperReports
+    byte[] getCompileContent() {
+        return compileContent;
+    }
+
+    // The source as it is on disk now, this is what the incremental manifest records
+    byte[] getDiskContent() {
+        return diskContent;
+    }
+
+    // The compile worker and the timeout both try to finish the report, only the first one counts
+    boolean markFinished() {
+        return finished.compareAndSet(false, true);
+    }
+
+    boolean isFinished() {
+        return finished.get();
+    }
+}
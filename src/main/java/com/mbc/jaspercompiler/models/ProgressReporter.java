@@ -0,0 +1,64 @@
+package com.mbc.jaspercompiler.models;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Publishes a counter snapshot at a fixed cadence instead of one event per file.
+// Snapshots that did not change since the last tick are dropped.
+public class ProgressReporter {
+    private final Supplier<CompileProgress> progressSupplier;
+    private final List<CompileListener> compileListeners;
+    private final long intervalMillis;
+    private ScheduledExecutorService scheduler;
+    private CompileProgress lastPublishedProgress;
+
+    public ProgressReporter(Supplier<CompileProgress> progressSupplier, List<CompileListener> compileListeners, long intervalMillis) {
+        this.progressSupplier = progressSupplier;
+        this.compileListeners = compileListeners;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) return;
+        lastPublishedProgress = null;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread reporter = new Thread(runnable, "jasper-compile-progress");
+            reporter.setDaemon(true);
+            return reporter;
+        });
+        scheduler.scheduleAtFixedRate(this::publish, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Stops the ticks and publishes the final counters so listeners always end on the real totals.
+    public void stop() {
+        ScheduledExecutorService stoppedScheduler;
+        synchronized (this) {
+            stoppedScheduler = scheduler;
+            scheduler = null;
+        }
+        if (stoppedScheduler == null) return;
+        stoppedScheduler.shutdown();
+        try {
+            stoppedScheduler.awaitTermination(intervalMillis * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        publish();
+    }
+
+    private synchronized void publish() {
+        CompileProgress progress = progressSupplier.get();
+        if (progress.equals(lastPublishedProgress)) return;
+        lastPublishedProgress = progress;
+        for (CompileListener compileListener : compileListeners) {
+            try {
+                compileListener.onProgress(progress);
+            } catch (RuntimeException e) {
+                System.out.println("Error in progress listener... - "+e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.mbc.jaspercompiler.models;
+
+// One compiled report in a report bundle. The hash is the SHA-256 of the uncompressed .jasper bytes.
+public class ReportBundleEntry {
+    private final String name;
+    private final long offset;
+    private final int storedLength;
+    private final int length;
+    private final boolean compressed;
+    private final byte[] hash;
+
+    ReportBundleEntry(String name, long offset, int storedLength, int length, boolean compressed, byte[] hash) {
+        this.name = name;
+        this.offset = offset;
+        this.storedLength = storedLength;
+        this.length = length;
+        this.compressed = compressed;
+        this.hash = hash;
+    }
+
+    ReportBundleEntry movedTo(long newOffset) {
+        return new ReportBundleEntry(name, newOffset, storedLength, length, compressed, hash);
+    }
+
+    ReportBundleEntry renamedTo(String newName) {
+        return new ReportBundleEntry(newName, offset, storedLength, length, compressed, hash);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    // Bytes in the bundle, smaller than the length when compressed
+    public int getStoredLength() {
+        return storedLength;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    byte[] getHash() {
+        return hash;
+    }
+
+    public String getHashHex() {
+        return CompileManifest.toHex(hash);
+    }
+
+    // Identifies the contents of the entry, stored in the compile manifest the way a .jasper modification time is
+    public long getStamp() {
+        long stamp = 0;
+        for (int i = 0; i < 8; i++) {
+            stamp = (stamp << 8) | (hash[i] & 0xFF);
+        }
+        return stamp;
+    }
+}
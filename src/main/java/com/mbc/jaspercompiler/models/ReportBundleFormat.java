@@ -0,0 +1,112 @@
+package com.mbc.jaspercompiler.models;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Layout of a report bundle:
+//   header  magic, version, index offset, index length, entry count (fixed size, at the start of the file)
+//   data    the .jasper bytes of every entry, optionally deflated
+//   index   per entry: name, offset, stored length, length, compressed flag, SHA-256
+// The index comes after the data, so an update can append the changed entries and a new index and only has to
+// rewrite the header. Data of replaced entries stays behind until the bundle is compacted.
+final class ReportBundleFormat {
+    static final int MAGIC = 0x4A524244;
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 4 + 4 + 8 + 4 + 4;
+    static final int HASH_LENGTH = 32;
+
+    private ReportBundleFormat() {
+    }
+
+    static ByteBuffer header(long indexOffset, int indexLength, int entryCount) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putInt(VERSION).putLong(indexOffset).putInt(indexLength).putInt(entryCount);
+        header.flip();
+        return header;
+    }
+
+    static IndexLocation readHeader(ByteBuffer header) throws IOException {
+        if (header.remaining() < HEADER_LENGTH || header.getInt() != MAGIC) throw new IOException("Not a report bundle");
+        int version = header.getInt();
+        if (version != VERSION) throw new IOException("Unsupported report bundle version "+version);
+        return new IndexLocation(header.getLong(), header.getInt(), header.getInt());
+    }
+
+    static byte[] writeIndex(Collection<ReportBundleEntry> entries) throws IOException {
+        ByteArrayOutputStream index = new ByteArrayOutputStream(entries.size() * 64);
+        try (DataOutputStream output = new DataOutputStream(index)) {
+            for (ReportBundleEntry entry : entries) {
+                output.writeUTF(entry.getName());
+                output.writeLong(entry.getOffset());
+                output.writeInt(entry.getStoredLength());
+                output.writeInt(entry.getLength());
+                output.writeBoolean(entry.isCompressed());
+                output.write(entry.getHash());
+            }
+        }
+        return index.toByteArray();
+    }
+
+    static Map<String, ReportBundleEntry> readIndex(ByteBuffer index, int entryCount) throws IOException {
+        Map<String, ReportBundleEntry> entries = new LinkedHashMap<>();
+        DataInputStream input = new DataInputStream(new ByteBufferInputStream(index));
+        for (int i = 0; i < entryCount; i++) {
+            String name = input.readUTF();
+            long offset = input.readLong();
+            int storedLength = input.readInt();
+            int length = input.readInt();
+            boolean compressed = input.readBoolean();
+            byte[] hash = new byte[HASH_LENGTH];
+            input.readFully(hash);
+            entries.put(name, new ReportBundleEntry(name, offset, storedLength, length, compressed, hash));
+        }
+        return entries;
+    }
+
+    static class IndexLocation {
+        final long offset;
+        final int length;
+        final int entryCount;
+
+        private IndexLocation(long offset, int length, int entryCount) {
+            this.offset = offset;
+            this.length = length;
+            this.entryCount = entryCount;
+        }
+    }
+
+    // Reads a (memory-mapped) buffer without copying it first
+    static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.mbc.jaspercompiler.models;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.util.JRLoader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.InflaterInputStream;
+
+// Memory-maps a report bundle (see ReportBundleFormat) and loads single reports from it on demand.
+// Only the index is read up front, safe to use from several threads.
+public class ReportBundleReader implements Closeable {
+    private final Path bundleFile;
+    private final FileChannel channel;
+    private final MappedByteBuffer mappedBundle;
+    private final Map<String, ReportBundleEntry> entries;
+
+    private ReportBundleReader(Path bundleFile, FileChannel channel, MappedByteBuffer mappedBundle, Map<String, ReportBundleEntry> entries) {
+        this.bundleFile = bundleFile;
+        this.channel = channel;
+        this.mappedBundle = mappedBundle;
+        this.entries = entries;
+    }
+
+    public static ReportBundleReader open(Path bundleFile) throws IOException {
+        FileChannel channel = FileChannel.open(bundleFile, StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Report bundle "+bundleFile+" is too large to map");
+            MappedByteBuffer mappedBundle = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ReportBundleFormat.IndexLocation indexLocation = ReportBundleFormat.readHeader(mappedBundle.duplicate());
+            ByteBuffer index = slice(mappedBundle, indexLocation.offset, indexLocation.length);
+            return new ReportBundleReader(bundleFile, channel, mappedBundle, ReportBundleFormat.readIndex(index, indexLocation.entryCount));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Corrupt report bundle "+bundleFile+" - "+e.getMessage(), e);
+        }
+    }
+
+    // Entry names are the report paths relative to the source directory, ending in .jasper
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public ReportBundleEntry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    public byte[] readBytes(String name) throws IOException {
+        try (InputStream inputStream = openStream(name)) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    // Reads straight from the mapped file, nothing is copied before JasperReports deserializes it
+    public JasperReport loadReport(String name) throws JRException {
+        try (InputStream inputStream = openStream(name)) {
+            return (JasperReport) JRLoader.loadObject(inputStream);
+        } catch (IOException e) {
+            throw new JRException("Failed to read "+name+" from "+bundleFile+" - "+e.getMessage(), e);
+        }
+    }
+
+    // Compares the entry with the hash in the index
+    public boolean verify(String name) throws IOException {
+        ReportBundleEntry entry = requireEntry(name);
+        return MessageDigest.isEqual(entry.getHash(), CompileManifest.newDigest().digest(readBytes(name)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping itself goes away with the buffer
+        channel.close();
+    }
+
+    private InputStream openStream(String name) throws IOException {
+        ReportBundleEntry entry = requireEntry(name);
+        InputStream inputStream = new ReportBundleFormat.ByteBufferInputStream(slice(mappedBundle, entry.getOffset(), entry.getStoredLength()));
+        return entry.isCompressed() ? new InflaterInputStream(inputStream) : inputStream;
+    }
+
+    private ReportBundleEntry requireEntry(String name) throws IOException {
+        ReportBundleEntry entry = entries.get(name);
+        if (entry == null) throw new IOException(name+" is not in report bundle "+bundleFile);
+        return entry;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, long offset, int length) throws IOException {
+        if (offset < 0 || offset + length > buffer.capacity()) throw new IOException("Report bundle entry is outside of the file");
+        ByteBuffer slice = buffer.duplicate();
+        slice.position((int) offset);
+        slice.limit((int) offset + length);
+        return slice.slice();
+    }
+}
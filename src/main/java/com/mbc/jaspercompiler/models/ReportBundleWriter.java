@@ -0,0 +1,250 @@
+package com.mbc.jaspercompiler.models;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+
+// Writes compiled reports into one bundle file (see ReportBundleFormat), safe to call from every compile worker.
+// A new bundle is written next to the old one and moved over it on close, so a deployed bundle is never half written.
+// An update appends only the reports that were put and keeps the others where they are, the header is
+// rewritten last. A new bundle copies over the old data of the reports that were kept instead of put, so a
+// report that failed still has its last good entry. Nothing touches the disk until the first put or close.
+public class ReportBundleWriter implements Closeable {
+    // Compact once the data of replaced and removed entries is larger than what is still in use
+    private static final long COMPACT_MIN_GARBAGE = 1024 * 1024;
+
+    private final Path bundleFile;
+    private final boolean compress;
+    private final boolean removeUnmarked;
+    private boolean update;
+    private boolean indexLoaded;
+    private final Map<String, ReportBundleEntry> entries = new LinkedHashMap<>();
+    // The entries of the old bundle when a new one is written
+    private final Map<String, ReportBundleEntry> previousEntries = new LinkedHashMap<>();
+    private final Set<String> markedNames = new HashSet<>();
+    private FileChannel channel;
+    private Path writeFile;
+    private long writePosition;
+    private boolean changed;
+
+    // update keeps the entries of an existing bundle, removeUnmarked then drops the ones that were neither put nor kept
+    public ReportBundleWriter(Path bundleFile, boolean update, boolean removeUnmarked, boolean compress) {
+        this.bundleFile = bundleFile;
+        this.update = update;
+        this.removeUnmarked = removeUnmarked;
+        this.compress = compress;
+    }
+
+    public Path getBundleFile() {
+        return bundleFile;
+    }
+
+    // The stamp of the entry in the existing bundle, -1 when there is none
+    public synchronized long getStamp(String name) {
+        loadIndex();
+        ReportBundleEntry entry = entries.get(name);
+        return entry == null ? -1 : entry.getStamp();
+    }
+
+    // The entry is up to date and stays in the bundle
+    public synchronized void keep(String name) {
+        markedNames.add(name);
+    }
+
+    // Returns the stamp of the new entry
+    public long put(String name, byte[] jasperContent) throws IOException {
+        byte[] hash = CompileManifest.newDigest().digest(jasperContent);
+        byte[] storedContent = compress ? deflate(jasperContent) : jasperContent;
+        synchronized (this) {
+            open();
+            ReportBundleEntry entry = new ReportBundleEntry(name, writePosition, storedContent.length, jasperContent.length, compress, hash);
+            writeFully(ByteBuffer.wrap(storedContent), writePosition);
+            writePosition += storedContent.length;
+            entries.put(name, entry);
+            markedNames.add(name);
+            changed = true;
+            return entry.getStamp();
+        }
+    }
+
+    // Adds name as a second entry for the data of an entry that was put or kept, nothing is written twice.
+    // Returns the stamp of the new entry.
+    public synchronized long putDuplicate(String name, String originalName) throws IOException {
+        loadIndex();
+        ReportBundleEntry original = entries.get(originalName);
+        if (original == null) throw new IOException("No entry "+originalName+" in report bundle "+bundleFile);
+        entries.put(name, original.renamedTo(name));
+        markedNames.add(name);
+        changed = true;
+        return original.getStamp();
+    }
+
+    // Writes the index and the header. A bundle that did not change is left alone.
+    @Override
+    public synchronized void close() throws IOException {
+        loadIndex();
+        if (removeUnmarked && entries.keySet().retainAll(markedNames)) changed = true;
+        if (!changed && update) {
+            if (channel != null) channel.close();
+            return;
+        }
+        try {
+            open();
+            if (update && needsCompaction()) compact();
+            if (!update) copyKeptEntries();
+            byte[] index = ReportBundleFormat.writeIndex(entries.values());
+            writeFully(ByteBuffer.wrap(index), writePosition);
+            channel.force(false);
+            writeFully(ReportBundleFormat.header(writePosition, index.length, entries.size()), 0);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        if (writeFile != null) AtomicFiles.move(writeFile, bundleFile);
+    }
+
+    private void loadIndex() {
+        if (indexLoaded) return;
+        indexLoaded = true;
+        if (!Files.exists(bundleFile)) {
+            update = false;
+            return;
+        }
+        try (FileChannel existing = FileChannel.open(bundleFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(ReportBundleFormat.HEADER_LENGTH);
+            readFully(existing, header, 0);
+            ReportBundleFormat.IndexLocation indexLocation = ReportBundleFormat.readHeader(header);
+            ByteBuffer index = ByteBuffer.allocate(indexLocation.length);
+            readFully(existing, index, indexLocation.offset);
+            (update ? entries : previousEntries).putAll(ReportBundleFormat.readIndex(index, indexLocation.entryCount));
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Failed to read report bundle "+bundleFile+", writing a new one... - "+e.getMessage());
+            entries.clear();
+            previousEntries.clear();
+            update = false;
+        }
+    }
+
+    private void open() throws IOException {
+        loadIndex();
+        if (channel != null) return;
+        if (update) {
+            channel = FileChannel.open(bundleFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            writePosition = channel.size();
+        } else {
+            Path parent = bundleFile.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            writeFile = bundleFile.resolveSibling(bundleFile.getFileName()+".tmp");
+            channel = FileChannel.open(writeFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            writePosition = ReportBundleFormat.HEADER_LENGTH;
+        }
+    }
+
+    private boolean needsCompaction() {
+        long liveBytes = 0;
+        Set<Long> countedOffsets = new HashSet<>();
+        for (ReportBundleEntry entry : entries.values()) {
+            // Duplicates share their data
+            if (countedOffsets.add(entry.getOffset())) liveBytes += entry.getStoredLength();
+        }
+        long garbageBytes = writePosition - ReportBundleFormat.HEADER_LENGTH - liveBytes;
+        return garbageBytes > COMPACT_MIN_GARBAGE && garbageBytes > liveBytes;
+    }
+
+    // Copies the live entries into a new file that replaces the bundle on close
+    private void compact() throws IOException {
+        Path compactFile = bundleFile.resolveSibling(bundleFile.getFileName()+".tmp");
+        FileChannel compactChannel = FileChannel.open(compactFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long compactPosition = ReportBundleFormat.HEADER_LENGTH;
+        try {
+            List<ReportBundleEntry> movedEntries = new ArrayList<>();
+            Map<Long, Long> movedOffsets = new HashMap<>();
+            for (ReportBundleEntry entry : entries.values()) {
+                Long movedOffset = movedOffsets.get(entry.getOffset());
+                if (movedOffset != null) {
+                    movedEntries.add(entry.movedTo(movedOffset));
+                    continue;
+                }
+                movedOffsets.put(entry.getOffset(), compactPosition);
+                transfer(channel, entry.getOffset(), entry.getStoredLength(), compactChannel, compactPosition);
+                movedEntries.add(entry.movedTo(compactPosition));
+                compactPosition += entry.getStoredLength();
+            }
+            movedEntries.forEach(entry -> entries.put(entry.getName(), entry));
+        } catch (IOException e) {
+            compactChannel.close();
+            Files.deleteIfExists(compactFile);
+            throw e;
+        }
+        channel.close();
+        channel = compactChannel;
+        writeFile = compactFile;
+        writePosition = compactPosition;
+    }
+
+    // The kept entries that are not in the new bundle yet, duplicates still share their data
+    private void copyKeptEntries() throws IOException {
+        if (previousEntries.isEmpty()) return;
+        try (FileChannel previousChannel = FileChannel.open(bundleFile, StandardOpenOption.READ)) {
+            Map<Long, Long> copiedOffsets = new HashMap<>();
+            for (ReportBundleEntry previousEntry : previousEntries.values()) {
+                if (!markedNames.contains(previousEntry.getName()) || entries.containsKey(previousEntry.getName())) continue;
+                Long copiedOffset = copiedOffsets.get(previousEntry.getOffset());
+                if (copiedOffset == null) {
+                    copiedOffset = writePosition;
+                    transfer(previousChannel, previousEntry.getOffset(), previousEntry.getStoredLength(), channel, writePosition);
+                    writePosition += previousEntry.getStoredLength();
+                    copiedOffsets.put(previousEntry.getOffset(), copiedOffset);
+                }
+                entries.put(previousEntry.getName(), previousEntry.movedTo(copiedOffset));
+            }
+        }
+    }
+
+    private static void transfer(FileChannel source, long sourcePosition, long length, FileChannel target, long targetPosition) throws IOException {
+        long copied = 0;
+        while (copied < length) {
+            long transferred = source.transferTo(sourcePosition + copied, length - copied, target.position(targetPosition + copied));
+            if (transferred <= 0) throw new IOException("Report bundle is truncated");
+            copied += transferred;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel fileChannel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = fileChannel.read(buffer, position);
+            if (read < 0) throw new IOException("Report bundle is truncated");
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    private static byte[] deflate(byte[] content) throws IOException {
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(content.length / 2);
+        try (DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(deflated)) {
+            deflaterOutputStream.write(content);
+        }
+        return deflated.toByteArray();
+    }
+}
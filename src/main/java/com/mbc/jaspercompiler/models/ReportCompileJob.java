@@ -0,0 +1,21 @@
+package com.mbc.jaspercompiler.models;
+
+import java.nio.file.Path;
+
+public class ReportCompileJob {
+    private final Path sourceFile;
+    private final Path jasperFile;
+
+    public ReportCompileJob(Path sourceFile, Path jasperFile) {
+        this.sourceFile = sourceFile;
+        this.jasperFile = jasperFile;
+    }
+
+    public Path getSourceFile() {
+        return sourceFile;
+    }
+
+    public Path getJasperFile() {
+        return jasperFile;
+    }
+}
@@ -0,0 +1,7 @@
+package com.mbc.jaspercompiler.models;
+
+public enum ReportCompileStatus {
+    SUCCESS,
+    FAILED,
+    UP_TO_DATE
+}
@@ -0,0 +1,98 @@
+package com.mbc.jaspercompiler.models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+// Groups the reports of a run by the hash of their rewritten content. The first report of a group is compiled,
+// the others wait for it and are then handed to finishDuplicate with its outcome, right away when it is already known.
+// A group only keeps the compile job of its first report, not its content.
+class ReportDeduplicator {
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+    private final Map<PreparedReport, Group> compilingGroups = new ConcurrentHashMap<>();
+    private final BiConsumer<PreparedReport, Original> finishDuplicate;
+    private final AtomicInteger savedCompiles = new AtomicInteger();
+
+    ReportDeduplicator(BiConsumer<PreparedReport, Original> finishDuplicate) {
+        this.finishDuplicate = finishDuplicate;
+    }
+
+    // Returns true when the report is the first with this content and has to be compiled
+    boolean join(String contentHash, PreparedReport preparedReport) {
+        Group group = groups.computeIfAbsent(contentHash, key -> new Group(preparedReport.getCompileJob()));
+        if (group.originalJob == preparedReport.getCompileJob()) {
+            compilingGroups.put(preparedReport, group);
+            return true;
+        }
+        Original original;
+        synchronized (group) {
+            if (group.original == null) {
+                group.waitingReports.add(preparedReport);
+                return false;
+            }
+            original = group.original;
+        }
+        finishDuplicate(preparedReport, original);
+        return false;
+    }
+
+    // Called once the first report of a group has finished, whatever the status
+    void finish(PreparedReport preparedReport, ReportCompileStatus compileStatus, String errorMessage) {
+        Group group = compilingGroups.remove(preparedReport);
+        if (group == null) return;
+        Original original = new Original(group.originalJob, compileStatus, errorMessage);
+        List<PreparedReport> waitingReports;
+        synchronized (group) {
+            group.original = original;
+            waitingReports = new ArrayList<>(group.waitingReports);
+            group.waitingReports.clear();
+        }
+        waitingReports.forEach(waitingReport -> finishDuplicate(waitingReport, original));
+    }
+
+    int getSavedCompiles() {
+        return savedCompiles.get();
+    }
+
+    private void finishDuplicate(PreparedReport preparedReport, Original original) {
+        savedCompiles.incrementAndGet();
+        finishDuplicate.accept(preparedReport, original);
+    }
+
+    static class Original {
+        private final ReportCompileJob compileJob;
+        private final ReportCompileStatus compileStatus;
+        private final String errorMessage;
+
+        private Original(ReportCompileJob compileJob, ReportCompileStatus compileStatus, String errorMessage) {
+            this.compileJob = compileJob;
+            this.compileStatus = compileStatus;
+            this.errorMessage = errorMessage;
+        }
+
+        ReportCompileJob getCompileJob() {
+            return compileJob;
+        }
+
+        ReportCompileStatus getCompileStatus() {
+            return compileStatus;
+        }
+
+        String getErrorMessage() {
+            return errorMessage;
+        }
+    }
+
+    private static class Group {
+        private final ReportCompileJob originalJob;
+        private final List<PreparedReport> waitingReports = new ArrayList<>();
+        private Original original;
+
+        private Group(ReportCompileJob originalJob) {
+            this.originalJob = originalJob;
+        }
+    }
+}
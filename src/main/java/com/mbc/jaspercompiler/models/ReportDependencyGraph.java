@@ -0,0 +1,267 @@
+package com.mbc.jaspercompiler.models;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Which reports use which subreports and style templates, built from the literals in
+// <subreportExpression> and <template>. A reference like $P{SUBREPORT_DIR} + "invoice_lines.jasper"
+// is matched by file name to the invoice_lines.jrxml next to the master report, or anywhere in the
+// report set when there is none next to it. Fully dynamic expressions cannot be resolved and are ignored.
+public class ReportDependencyGraph {
+    private static final Pattern SUBREPORT_EXPRESSION_PATTERN = Pattern.compile("<subreportExpression[^>]*>(.*?)</subreportExpression>", Pattern.DOTALL);
+    private static final Pattern TEMPLATE_PATTERN = Pattern.compile("<template[^>]*>(.*?)</template>", Pattern.DOTALL);
+    private static final Pattern STRING_LITERAL_PATTERN = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private final Map<Path, ReportNode> reportNodes = new LinkedHashMap<>();
+    private final Map<String, List<Path>> reportsByName = new HashMap<>();
+
+    public void addReport(ReportCompileJob compileJob, byte[] jrxmlContent) {
+        Path sourceFile = compileJob.getSourceFile().toAbsolutePath().normalize();
+        ReportNode previousNode = reportNodes.get(sourceFile);
+        if (previousNode == null) {
+            reportsByName.computeIfAbsent(reportName(sourceFile.getFileName().toString()), name -> new ArrayList<>()).add(sourceFile);
+        }
+        String jrxml = new String(jrxmlContent, StandardCharsets.UTF_8);
+        ReportNode reportNode = new ReportNode(compileJob);
+        reportNode.subreportReferences.addAll(findSubreportReferences(jrxml));
+        reportNode.templateReferences.addAll(findTemplateReferences(jrxml));
+        reportNodes.put(sourceFile, reportNode);
+    }
+
+    public boolean contains(Path sourceFile) {
+        return reportNodes.containsKey(sourceFile.toAbsolutePath().normalize());
+    }
+
+    // Reports of the same level do not depend on each other, every level only depends on the levels before it.
+    // Reports in a cycle cannot be ordered and come last.
+    public List<List<ReportCompileJob>> getCompileLevels() {
+        return getCompileLevels(reportNodes.keySet());
+    }
+
+    public List<List<ReportCompileJob>> getCompileLevels(Collection<Path> sourceFiles) {
+        Set<Path> selected = normalize(sourceFiles);
+        Map<Path, Integer> remainingDependencies = new HashMap<>();
+        Map<Path, List<Path>> dependents = new HashMap<>();
+        for (Path sourceFile : selected) {
+            Set<Path> dependencies = resolveSubreports(sourceFile);
+            dependencies.retainAll(selected);
+            remainingDependencies.put(sourceFile, dependencies.size());
+            dependencies.forEach(dependency -> dependents.computeIfAbsent(dependency, key -> new ArrayList<>()).add(sourceFile));
+        }
+        List<List<ReportCompileJob>> compileLevels = new ArrayList<>();
+        List<Path> currentLevel = new ArrayList<>();
+        for (Path sourceFile : selected) {
+            if (remainingDependencies.get(sourceFile) == 0) currentLevel.add(sourceFile);
+        }
+        Set<Path> ordered = new HashSet<>();
+        while (!currentLevel.isEmpty()) {
+            List<ReportCompileJob> levelJobs = new ArrayList<>();
+            List<Path> nextLevel = new ArrayList<>();
+            for (Path sourceFile : currentLevel) {
+                ordered.add(sourceFile);
+                levelJobs.add(reportNodes.get(sourceFile).compileJob);
+                for (Path dependent : dependents.getOrDefault(sourceFile, List.of())) {
+                    if (remainingDependencies.merge(dependent, -1, Integer::sum) == 0) nextLevel.add(dependent);
+                }
+            }
+            compileLevels.add(levelJobs);
+            currentLevel.clear();
+            currentLevel.addAll(nextLevel);
+        }
+        List<ReportCompileJob> unorderedJobs = new ArrayList<>();
+        for (Path sourceFile : selected) {
+            if (!ordered.contains(sourceFile)) unorderedJobs.add(reportNodes.get(sourceFile).compileJob);
+        }
+        if (!unorderedJobs.isEmpty()) compileLevels.add(unorderedJobs);
+        return compileLevels;
+    }
+
+    // The given reports plus every report that uses one of them, directly or through other subreports
+    public Set<Path> withDependents(Collection<Path> sourceFiles) {
+        Map<Path, List<Path>> dependents = new HashMap<>();
+        for (Path sourceFile : reportNodes.keySet()) {
+            resolveSubreports(sourceFile).forEach(dependency -> dependents.computeIfAbsent(dependency, key -> new ArrayList<>()).add(sourceFile));
+        }
+        Set<Path> affected = new LinkedHashSet<>(normalize(sourceFiles));
+        Deque<Path> pending = new ArrayDeque<>(affected);
+        while (!pending.isEmpty()) {
+            for (Path dependent : dependents.getOrDefault(pending.poll(), List.of())) {
+                if (affected.add(dependent)) pending.add(dependent);
+            }
+        }
+        return affected;
+    }
+
+    // Literal references that match no report in the set, or no template file next to the report
+    public List<String> getMissingReferences() {
+        List<String> missingReferences = new ArrayList<>();
+        reportNodes.forEach((sourceFile, reportNode) -> {
+            for (String subreport : reportNode.subreportReferences) {
+                if (!reportsByName.containsKey(reportName(fileName(subreport)))) {
+                    missingReferences.add(sourceFile+" -> subreport "+subreport);
+                }
+            }
+            for (String template : reportNode.templateReferences) {
+                if (!templateExists(sourceFile, template)) missingReferences.add(sourceFile+" -> template "+template);
+            }
+        });
+        return missingReferences;
+    }
+
+    // Every group of reports that (indirectly) use each other as subreports
+    public List<List<Path>> getCycles() {
+        return new CycleFinder().findCycles();
+    }
+
+    private Set<Path> resolveSubreports(Path sourceFile) {
+        Set<Path> dependencies = new LinkedHashSet<>();
+        for (String subreport : reportNodes.get(sourceFile).subreportReferences) {
+            List<Path> candidates = reportsByName.getOrDefault(reportName(fileName(subreport)), List.of());
+            Path sibling = null;
+            for (Path candidate : candidates) {
+                if (candidate.getParent() != null && candidate.getParent().equals(sourceFile.getParent())) sibling = candidate;
+            }
+            // Without one next to the master, every report with that name might be the one that is meant
+            if (sibling != null) {
+                dependencies.add(sibling);
+            } else {
+                dependencies.addAll(candidates);
+            }
+        }
+        return dependencies;
+    }
+
+    static List<String> findSubreportReferences(String jrxml) {
+        return findLiterals(SUBREPORT_EXPRESSION_PATTERN, jrxml, ".jasper", ".jrxml");
+    }
+
+    static List<String> findTemplateReferences(String jrxml) {
+        return findLiterals(TEMPLATE_PATTERN, jrxml, ".jrtx");
+    }
+
+    static boolean templateExists(Path sourceFile, String template) {
+        try {
+            return Files.exists(sourceFile.resolveSibling(template)) || Files.exists(sourceFile.resolveSibling(fileName(template)));
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    private Set<Path> normalize(Collection<Path> sourceFiles) {
+        Set<Path> normalized = new LinkedHashSet<>();
+        for (Path sourceFile : sourceFiles) {
+            Path normalizedFile = sourceFile.toAbsolutePath().normalize();
+            if (reportNodes.containsKey(normalizedFile)) normalized.add(normalizedFile);
+        }
+        return normalized;
+    }
+
+    private static List<String> findLiterals(Pattern elementPattern, String jrxml, String... extensions) {
+        List<String> literals = new ArrayList<>();
+        Matcher elementMatcher = elementPattern.matcher(jrxml);
+        while (elementMatcher.find()) {
+            Matcher literalMatcher = STRING_LITERAL_PATTERN.matcher(elementMatcher.group(1));
+            while (literalMatcher.find()) {
+                String literal = literalMatcher.group(1).replace("\\\\", "/");
+                for (String extension : extensions) {
+                    if (literal.toLowerCase().endsWith(extension)) literals.add(literal);
+                }
+            }
+        }
+        return literals;
+    }
+
+    static String fileName(String reference) {
+        return reference.substring(Math.max(reference.lastIndexOf('/'), reference.lastIndexOf('\\')) + 1);
+    }
+
+    static String reportName(String fileName) {
+        int extensionStart = fileName.lastIndexOf('.');
+        return (extensionStart < 0 ? fileName : fileName.substring(0, extensionStart)).toLowerCase();
+    }
+
+    private static class ReportNode {
+        private final ReportCompileJob compileJob;
+        private final List<String> subreportReferences = new ArrayList<>();
+        private final List<String> templateReferences = new ArrayList<>();
+
+        private ReportNode(ReportCompileJob compileJob) {
+            this.compileJob = compileJob;
+        }
+    }
+
+    // Tarjan's strongly connected components, without recursion so deep subreport chains cannot overflow the stack
+    private class CycleFinder {
+        private final Map<Path, Integer> indexes = new HashMap<>();
+        private final Map<Path, Integer> lowLinks = new HashMap<>();
+        private final Deque<Path> componentStack = new ArrayDeque<>();
+        private final Set<Path> onStack = new HashSet<>();
+        private final List<List<Path>> cycles = new ArrayList<>();
+        private int nextIndex;
+
+        private List<List<Path>> findCycles() {
+            for (Path sourceFile : reportNodes.keySet()) {
+                if (!indexes.containsKey(sourceFile)) visit(sourceFile);
+            }
+            return cycles;
+        }
+
+        private void visit(Path root) {
+            Deque<Path> callStack = new ArrayDeque<>();
+            Map<Path, Deque<Path>> unvisitedDependencies = new HashMap<>();
+            enter(root, callStack, unvisitedDependencies);
+            while (!callStack.isEmpty()) {
+                Path current = callStack.peek();
+                Path dependency = unvisitedDependencies.get(current).poll();
+                if (dependency != null) {
+                    if (!indexes.containsKey(dependency)) {
+                        enter(dependency, callStack, unvisitedDependencies);
+                    } else if (onStack.contains(dependency)) {
+                        lowLinks.put(current, Math.min(lowLinks.get(current), indexes.get(dependency)));
+                    }
+                    continue;
+                }
+                callStack.pop();
+                if (!callStack.isEmpty()) {
+                    Path caller = callStack.peek();
+                    lowLinks.put(caller, Math.min(lowLinks.get(caller), lowLinks.get(current)));
+                }
+                if (lowLinks.get(current).equals(indexes.get(current))) {
+                    List<Path> component = new ArrayList<>();
+                    Path member;
+                    do {
+                        member = componentStack.pop();
+                        onStack.remove(member);
+                        component.add(member);
+                    } while (!member.equals(current));
+                    if (component.size() > 1 || resolveSubreports(current).contains(current)) cycles.add(component);
+                }
+            }
+        }
+
+        private void enter(Path sourceFile, Deque<Path> callStack, Map<Path, Deque<Path>> unvisitedDependencies) {
+            indexes.put(sourceFile, nextIndex);
+            lowLinks.put(sourceFile, nextIndex);
+            nextIndex++;
+            componentStack.push(sourceFile);
+            onStack.add(sourceFile);
+            callStack.push(sourceFile);
+            unvisitedDependencies.put(sourceFile, new ArrayDeque<>(resolveSubreports(sourceFile)));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.mbc.jaspercompiler.models;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Finds the jrxml files of a run in one lazy walk. Directory entries are streamed one at a time, nothing is
+// kept unless the caller keeps it, and counting does not store any paths at all.
+public class ReportDiscovery {
+    private final Path rootDirectory;
+    private final boolean recursive;
+
+    public ReportDiscovery(Path rootDirectory, boolean recursive) {
+        this.rootDirectory = rootDirectory;
+        this.recursive = recursive;
+    }
+
+    // Unreadable directories are reported and skipped, the rest of the tree is still walked
+    public void forEach(Consumer<Path> reportSink) {
+        try {
+            Files.walkFileTree(rootDirectory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), recursive ? Integer.MAX_VALUE : 1, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && isJrxmlFile(file)) reportSink.accept(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    System.out.println("Skipping "+file+" - "+e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Failed to read "+rootDirectory+" - "+e.getMessage());
+        }
+    }
+
+    public int count() {
+        AtomicInteger reportCount = new AtomicInteger();
+        forEach(report -> reportCount.incrementAndGet());
+        return reportCount.get();
+    }
+
+    // For the modes that need the whole set before compiling, see ReportPathList
+    public ReportPathList collect() {
+        ReportPathList reportPaths = new ReportPathList();
+        forEach(reportPaths::add);
+        return reportPaths;
+    }
+
+    static boolean isJrxmlFile(Path file) {
+        Path fileName = file.getFileName();
+        return fileName != null && fileName.toString().toLowerCase().endsWith(".jrxml");
+    }
+}
@@ -0,0 +1,69 @@
+package com.mbc.jaspercompiler.models;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// Report paths stored as a shared parent directory plus the file name, a folder with thousands of
+// reports keeps one Path for the folder instead of one full Path per report.
+public class ReportPathList implements Iterable<Path> {
+    private final List<Path> directories = new ArrayList<>();
+    private final Map<Path, Integer> directoryIndexes = new HashMap<>();
+    private int[] reportDirectories = new int[256];
+    private String[] reportNames = new String[256];
+    private int size;
+    private Path lastDirectory;
+    private int lastDirectoryIndex;
+
+    public void add(Path report) {
+        Path directory = report.getParent();
+        // A walk hands out the files of one folder one after another, so this is usually the same folder
+        if (lastDirectory == null || !lastDirectory.equals(directory)) {
+            lastDirectoryIndex = directoryIndexes.computeIfAbsent(directory, key -> {
+                directories.add(key);
+                return directories.size() - 1;
+            });
+            lastDirectory = directory;
+        }
+        if (size == reportNames.length) {
+            reportDirectories = Arrays.copyOf(reportDirectories, size * 2);
+            reportNames = Arrays.copyOf(reportNames, size * 2);
+        }
+        reportDirectories[size] = lastDirectoryIndex;
+        reportNames[size] = report.getFileName().toString();
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Path get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index "+index+", size "+size);
+        Path directory = directories.get(reportDirectories[index]);
+        return directory == null ? Path.of(reportNames[index]) : directory.resolve(reportNames[index]);
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Path next() {
+                if (next >= size) throw new NoSuchElementException();
+                return get(next++);
+            }
+        };
+    }
+}
@@ -0,0 +1,351 @@
+package com.mbc.jaspercompiler.models;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Applies every RewriteRule to a jrxml in one pass over the raw bytes: attribute rules in start tags, expression
+// literal rules in the text and CDATA of expression elements. The first attribute rule that applies to an attribute wins.
+// Comments, processing instructions and all other text are copied untouched, and so is everything else in the file,
+// including its encoding, line endings and indentation. Counts how often every rule changed something.
+public class ReportRewriter {
+    private static final byte[] COMMENT_START = "<!--".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] COMMENT_END = "-->".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CDATA_START = "<![CDATA[".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CDATA_END = "]]>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PI_END = "?>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EXPRESSION_SUFFIX = "Expression".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EXPRESSION_ELEMENT = "expression".getBytes(StandardCharsets.US_ASCII);
+    private static final Pattern ENCODING_PATTERN = Pattern.compile("encoding\\s*=\\s*[\"']([A-Za-z0-9._\\-]+)[\"']");
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    private final List<RewriteRule> rules;
+    private final RewriteRule[] attributeRules;
+    private final int[] attributeRuleIndexes;
+    private final RewriteRule[] literalRules;
+    private final int[] literalRuleIndexes;
+    private final AtomicLongArray ruleHits;
+
+    public ReportRewriter(List<RewriteRule> rules) {
+        this.rules = List.copyOf(rules);
+        List<Integer> attributeIndexes = new ArrayList<>();
+        List<Integer> literalIndexes = new ArrayList<>();
+        for (int i = 0; i < this.rules.size(); i++) {
+            (this.rules.get(i).isExpressionLiteral() ? literalIndexes : attributeIndexes).add(i);
+        }
+        attributeRuleIndexes = attributeIndexes.stream().mapToInt(Integer::intValue).toArray();
+        attributeRules = attributeIndexes.stream().map(this.rules::get).toArray(RewriteRule[]::new);
+        literalRuleIndexes = literalIndexes.stream().mapToInt(Integer::intValue).toArray();
+        literalRules = literalIndexes.stream().map(this.rules::get).toArray(RewriteRule[]::new);
+        ruleHits = new AtomicLongArray(this.rules.size());
+    }
+
+    public List<RewriteRule> getRules() {
+        return rules;
+    }
+
+    // Changes made per rule since this rewriter was created, by rule spec in rule order
+    public Map<String, Long> getRuleHits() {
+        Map<String, Long> hits = new LinkedHashMap<>();
+        for (int i = 0; i < rules.size(); i++) {
+            hits.merge(rules.get(i).getSpec(), ruleHits.get(i), Long::sum);
+        }
+        return hits;
+    }
+
+    // The returned content may live in a per-thread buffer that is reused by the next rewrite on the same thread.
+    public Result rewrite(byte[] content) {
+        Result result;
+        Charset utf16 = detectUtf16(content);
+        if (utf16 != null) {
+            // Not ASCII compatible, so scan a UTF-8 copy and encode the result back
+            Result utf8Result = rewrite(new String(content, utf16).getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+            if (!utf8Result.isChanged()) {
+                result = new Result(content, content.length, false, 0, utf8Result.hits);
+            } else {
+                byte[] encoded = new String(utf8Result.content, 0, utf8Result.length, StandardCharsets.UTF_8).getBytes(utf16);
+                result = new Result(encoded, encoded.length, true, utf8Result.replacements, utf8Result.hits);
+            }
+        } else {
+            result = rewrite(content, declaredCharset(content));
+        }
+        for (int i = 0; i < result.hits.length; i++) {
+            if (result.hits[i] > 0) ruleHits.addAndGet(i, result.hits[i]);
+        }
+        return result;
+    }
+
+    private Result rewrite(byte[] content, Charset charset) {
+        Edit edit = new Edit(content, rules.size());
+        byte[][][] literals = new byte[literalRules.length][][];
+        for (int r = 0; r < literalRules.length; r++) {
+            literals[r] = literalRules[r].encodedLiteral(charset);
+        }
+        int length = content.length;
+        boolean inExpression = false;
+        int i = 0;
+        while (i < length) {
+            if (content[i] != '<') {
+                int textEnd = indexOf(content, i, (byte) '<');
+                if (inExpression) replaceLiterals(edit, literals, i, textEnd, false);
+                i = textEnd;
+            } else if (startsWith(content, i, COMMENT_START)) {
+                i = skipPast(content, i + COMMENT_START.length, COMMENT_END);
+            } else if (startsWith(content, i, CDATA_START)) {
+                int cdataStart = i + CDATA_START.length;
+                i = skipPast(content, cdataStart, CDATA_END);
+                if (inExpression) replaceLiterals(edit, literals, cdataStart, Math.max(cdataStart, i - CDATA_END.length), true);
+            } else if (i + 1 < length && content[i + 1] == '?') {
+                i = skipPast(content, i + 2, PI_END);
+            } else if (i + 1 < length && content[i + 1] == '/') {
+                inExpression = false;
+                i = indexOf(content, i, (byte) '>') + 1;
+            } else {
+                // A start tag (or a declaration), attribute values are skipped as a whole
+                int elementStart = i + 1;
+                int elementEnd = elementStart;
+                while (elementEnd < length && isNameChar(content[elementEnd])) elementEnd++;
+                i = rewriteTag(edit, elementStart, elementEnd, charset);
+                boolean selfClosing = i < length && content[i - 1] == '/';
+                inExpression = literalRules.length > 0 && !selfClosing && isExpressionElement(content, elementStart, elementEnd);
+                i++;
+            }
+        }
+        return edit.finish();
+    }
+
+    // Returns the index of the closing >
+    private int rewriteTag(Edit edit, int elementStart, int elementEnd, Charset charset) {
+        byte[] content = edit.content;
+        int length = content.length;
+        int i = elementEnd;
+        while (i < length && content[i] != '>') {
+            byte current = content[i];
+            if (current == '"' || current == '\'') {
+                i = indexOf(content, i + 1, current) + 1;
+            } else if (isWhitespace(current) && i + 1 < length && isNameChar(content[i + 1]) && attributeRules.length > 0) {
+                int nameStart = i + 1;
+                int nameEnd = nameStart;
+                while (nameEnd < length && isNameChar(content[nameEnd])) nameEnd++;
+                i = rewriteAttribute(edit, elementStart, elementEnd, nameStart, nameEnd, charset);
+            } else {
+                i++;
+            }
+        }
+        return i;
+    }
+
+    // Returns the index after the attribute value
+    private int rewriteAttribute(Edit edit, int elementStart, int elementEnd, int nameStart, int nameEnd, Charset charset) {
+        byte[] content = edit.content;
+        int valueStart = findAttributeValue(content, nameEnd);
+        if (valueStart < 0) return nameEnd;
+        int valueEnd = indexOf(content, valueStart, content[valueStart - 1]);
+        if (valueEnd >= content.length) return content.length;
+        String currentValue = null;
+        for (int r = 0; r < attributeRules.length; r++) {
+            RewriteRule rule = attributeRules[r];
+            if (!rule.matchesAttribute(content, nameStart, nameEnd, elementStart, elementEnd)) continue;
+            if (rule.hasValuePattern() && currentValue == null) {
+                currentValue = unescapeAttributeValue(new String(content, valueStart, valueEnd - valueStart, charset));
+            }
+            byte[] newValue = rule.newAttributeValue(currentValue, charset);
+            // The value does not match, a later rule may still apply
+            if (newValue == null) continue;
+            if (!regionEquals(content, valueStart, valueEnd, newValue)) edit.replace(valueStart, valueEnd, newValue, attributeRuleIndexes[r]);
+            break;
+        }
+        return valueEnd + 1;
+    }
+
+    private void replaceLiterals(Edit edit, byte[][][] literals, int start, int end, boolean cdata) {
+        byte[] content = edit.content;
+        int i = start;
+        scan:
+        while (i < end) {
+            for (int r = 0; r < literals.length; r++) {
+                byte[] literal = literals[r][cdata ? 2 : 0];
+                if (content[i] == literal[0] && i + literal.length <= end && startsWith(content, i, literal)) {
+                    byte[] replacement = literals[r][cdata ? 3 : 1];
+                    if (!Arrays.equals(literal, replacement)) edit.replace(i, i + literal.length, replacement, literalRuleIndexes[r]);
+                    i += literal.length;
+                    continue scan;
+                }
+            }
+            i++;
+        }
+    }
+
+    private static boolean isExpressionElement(byte[] content, int start, int end) {
+        return (end - start > EXPRESSION_SUFFIX.length && regionEquals(content, end - EXPRESSION_SUFFIX.length, end, EXPRESSION_SUFFIX))
+                || regionEquals(content, start, end, EXPRESSION_ELEMENT);
+    }
+
+    // Returns the index just after the opening quote, or -1 when the name is not followed by ="
+    private static int findAttributeValue(byte[] content, int i) {
+        int length = content.length;
+        while (i < length && isWhitespace(content[i])) i++;
+        if (i >= length || content[i] != '=') return -1;
+        i++;
+        while (i < length && isWhitespace(content[i])) i++;
+        if (i >= length || (content[i] != '"' && content[i] != '\'')) return -1;
+        return i + 1;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean isNameChar(byte b) {
+        return !isWhitespace(b) && b != '=' && b != '>' && b != '/' && b != '"' && b != '\'' && b != '<';
+    }
+
+    private static boolean startsWith(byte[] content, int offset, byte[] prefix) {
+        if (offset + prefix.length > content.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (content[offset + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean regionEquals(byte[] content, int start, int end, byte[] value) {
+        return end - start == value.length && startsWith(content, start, value);
+    }
+
+    private static int indexOf(byte[] content, int from, byte b) {
+        for (int i = from; i < content.length; i++) {
+            if (content[i] == b) return i;
+        }
+        return content.length;
+    }
+
+    private static int skipPast(byte[] content, int from, byte[] terminator) {
+        for (int i = from; i < content.length; i++) {
+            if (content[i] == terminator[0] && startsWith(content, i, terminator)) return i + terminator.length;
+        }
+        return content.length;
+    }
+
+    private static String unescapeAttributeValue(String value) {
+        if (value.indexOf('&') < 0) return value;
+        return value.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    private static Charset detectUtf16(byte[] content) {
+        if (content.length < 2) return null;
+        if ((content[0] == (byte) 0xFE && content[1] == (byte) 0xFF) || (content[0] == 0 && content[1] == '<')) return StandardCharsets.UTF_16BE;
+        if ((content[0] == (byte) 0xFF && content[1] == (byte) 0xFE) || (content[0] == '<' && content[1] == 0)) return StandardCharsets.UTF_16LE;
+        return null;
+    }
+
+    private static Charset declaredCharset(byte[] content) {
+        if (!startsWith(content, 0, "<?xml".getBytes(StandardCharsets.US_ASCII))) return StandardCharsets.UTF_8;
+        int declarationEnd = skipPast(content, 0, PI_END);
+        Matcher matcher = ENCODING_PATTERN.matcher(new String(content, 0, declarationEnd, StandardCharsets.US_ASCII));
+        if (!matcher.find()) return StandardCharsets.UTF_8;
+        try {
+            return Charset.forName(matcher.group(1));
+        } catch (RuntimeException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    public static class Result {
+        private final byte[] content;
+        private final int length;
+        private final boolean changed;
+        private final int replacements;
+        private final int[] hits;
+
+        private Result(byte[] content, int length, boolean changed, int replacements, int[] hits) {
+            this.content = content;
+            this.length = length;
+            this.changed = changed;
+            this.replacements = replacements;
+            this.hits = hits;
+        }
+
+        public boolean isChanged() {
+            return changed;
+        }
+
+        public int getReplacements() {
+            return replacements;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public InputStream newInputStream() {
+            return new ByteArrayInputStream(content, 0, length);
+        }
+
+        public void writeTo(OutputStream outputStream) throws IOException {
+            outputStream.write(content, 0, length);
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(content, length);
+        }
+    }
+
+    // The rewritten copy is only started at the first change, an unchanged report is never copied
+    private static class Edit {
+        private final byte[] content;
+        private final int[] hits;
+        private Buffer buffer;
+        private int copiedUpTo;
+        private int replacements;
+
+        private Edit(byte[] content, int ruleCount) {
+            this.content = content;
+            this.hits = new int[ruleCount];
+        }
+
+        private void replace(int start, int end, byte[] value, int ruleIndex) {
+            if (buffer == null) {
+                buffer = BUFFERS.get();
+                buffer.reset(content.length + 64);
+            }
+            buffer.append(content, copiedUpTo, start - copiedUpTo);
+            buffer.append(value, 0, value.length);
+            copiedUpTo = end;
+            replacements++;
+            hits[ruleIndex]++;
+        }
+
+        private Result finish() {
+            if (buffer == null) return new Result(content, content.length, false, 0, hits);
+            buffer.append(content, copiedUpTo, content.length - copiedUpTo);
+            return new Result(buffer.data, buffer.size, true, replacements, hits);
+        }
+    }
+
+    private static class Buffer {
+        private byte[] data = new byte[8192];
+        private int size;
+
+        private void reset(int expectedSize) {
+            if (data.length < expectedSize) data = new byte[expectedSize];
+            size = 0;
+        }
+
+        private void append(byte[] source, int offset, int count) {
+            if (size + count > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, size + count));
+            System.arraycopy(source, offset, data, size, count);
+            size += count;
+        }
+    }
+}
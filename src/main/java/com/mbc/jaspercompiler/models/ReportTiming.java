@@ -0,0 +1,38 @@
+package com.mbc.jaspercompiler.models;
+
+// Phase durations of one report, filled in by the compile worker that handled it.
+public class ReportTiming {
+    private final String sourceFile;
+    private final long[] phaseNanos = new long[CompilePhase.values().length];
+    private ReportCompileStatus status;
+
+    public ReportTiming(String sourceFile) {
+        this.sourceFile = sourceFile;
+    }
+
+    public void add(CompilePhase phase, long nanos) {
+        phaseNanos[phase.ordinal()] += nanos;
+    }
+
+    public String getSourceFile() {
+        return sourceFile;
+    }
+
+    public long getNanos(CompilePhase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    public long getTotalNanos() {
+        long totalNanos = 0;
+        for (long nanos : phaseNanos) totalNanos += nanos;
+        return totalNanos;
+    }
+
+    public ReportCompileStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(ReportCompileStatus status) {
+        this.status = status;
+    }
+}
@@ -0,0 +1,193 @@
+package com.mbc.jaspercompiler.models;
+
+import net.sf.jasperreports.engine.xml.JRXmlLoader;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Cheap checks that catch most broken reports before a full compile is spent on them: the XML is well-formed,
+// valid against the JasperReports schema (reports with the jasperreports namespace, older DTD reports are only parsed),
+// every fontName is readable and the literal subreport and template references exist next to the report.
+// Thread-safe, every thread gets its own parser and schema validator.
+public class ReportValidator {
+    private static final String JASPER_NAMESPACE = "http://jasperreports.sourceforge.net/jasperreports";
+    private static final String SCHEMA_RESOURCE = "/net/sf/jasperreports/engine/dtds/jasperreport.xsd";
+    private static final Pattern ROOT_NAMESPACE_PATTERN = Pattern.compile("<jasperReport\\b[^>]*?\\sxmlns\\s*=\\s*[\"']([^\"']*)[\"']");
+    private static final Pattern FONT_NAME_PATTERN = Pattern.compile("\\sfontName\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+    // Component elements (tables, lists, barcodes) come from schemas that are registered as JasperReports extensions,
+    // a missing declaration for them is not an error of the report
+    private static final String UNDECLARED_WILDCARD_ELEMENT = "cvc-complex-type.2.4.c";
+
+    private final boolean strictReferences;
+    private final Schema schema;
+    private final SAXParserFactory parserFactory;
+    private final ThreadLocal<Validator> schemaValidators;
+    private final ThreadLocal<XMLReader> xmlReaders;
+
+    // With strictReferences a reference that does not exist fails the report, otherwise it is only a warning
+    public ReportValidator(boolean strictReferences) {
+        this.strictReferences = strictReferences;
+        this.schema = loadSchema();
+        this.parserFactory = SAXParserFactory.newInstance();
+        parserFactory.setNamespaceAware(true);
+        schemaValidators = ThreadLocal.withInitial(this::newSchemaValidator);
+        xmlReaders = ThreadLocal.withInitial(this::newXmlReader);
+    }
+
+    public boolean isStrictReferences() {
+        return strictReferences;
+    }
+
+    public Result validate(Path sourceFile, byte[] jrxmlContent) {
+        Result result = new Result();
+        String jrxml = new String(jrxmlContent, StandardCharsets.UTF_8);
+        Matcher namespaceMatcher = ROOT_NAMESPACE_PATTERN.matcher(jrxml);
+        boolean schemaReport = schema != null && namespaceMatcher.find() && JASPER_NAMESPACE.equals(namespaceMatcher.group(1));
+        try {
+            if (schemaReport) {
+                Validator schemaValidator = schemaValidators.get();
+                schemaValidator.setErrorHandler(new FirstErrorHandler());
+                schemaValidator.validate(new StreamSource(new ByteArrayInputStream(jrxmlContent), sourceFile.toUri().toString()));
+            } else {
+                XMLReader xmlReader = xmlReaders.get();
+                xmlReader.setErrorHandler(new FirstErrorHandler());
+                InputSource inputSource = new InputSource(new ByteArrayInputStream(jrxmlContent));
+                inputSource.setSystemId(sourceFile.toUri().toString());
+                xmlReader.parse(inputSource);
+            }
+        } catch (SAXParseException e) {
+            result.errors.add("line "+e.getLineNumber()+": "+e.getMessage());
+            // Nothing below is reliable on a document that does not parse
+            return result;
+        } catch (SAXException | IOException e) {
+            result.errors.add(e.getMessage());
+            return result;
+        }
+        Matcher fontNameMatcher = FONT_NAME_PATTERN.matcher(jrxml);
+        while (fontNameMatcher.find()) {
+            String fontName = fontNameMatcher.group(1) != null ? fontNameMatcher.group(1) : fontNameMatcher.group(2);
+            if (fontName.isBlank()) {
+                result.errors.add("empty fontName");
+                break;
+            }
+        }
+        List<String> missingReferences = new ArrayList<>();
+        for (String subreport : ReportDependencyGraph.findSubreportReferences(jrxml)) {
+            if (!subreportExists(sourceFile, subreport)) missingReferences.add("missing subreport "+subreport);
+        }
+        for (String template : ReportDependencyGraph.findTemplateReferences(jrxml)) {
+            if (!ReportDependencyGraph.templateExists(sourceFile, template)) missingReferences.add("missing template "+template);
+        }
+        (strictReferences ? result.errors : result.warnings).addAll(missingReferences);
+        return result;
+    }
+
+    // The .jasper of a subreport usually does not exist yet, its jrxml next to the master is just as good
+    private static boolean subreportExists(Path sourceFile, String subreport) {
+        try {
+            String reportName = ReportDependencyGraph.fileName(subreport);
+            int extensionStart = reportName.lastIndexOf('.');
+            String jrxmlName = (extensionStart < 0 ? reportName : reportName.substring(0, extensionStart))+".jrxml";
+            return Files.exists(sourceFile.resolveSibling(subreport)) || Files.exists(sourceFile.resolveSibling(reportName))
+                    || Files.exists(sourceFile.resolveSibling(jrxmlName));
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    private static Schema loadSchema() {
+        // Ships inside the JasperReports jar next to the loader
+        URL schemaUrl = JRXmlLoader.class.getResource(SCHEMA_RESOURCE);
+        if (schemaUrl == null) {
+            System.out.println("JasperReports schema not found, reports are only checked for well-formedness...");
+            return null;
+        }
+        try {
+            return SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemaUrl);
+        } catch (SAXException e) {
+            System.out.println("JasperReports schema could not be loaded, reports are only checked for well-formedness... - "+e.getMessage());
+            return null;
+        }
+    }
+
+    private Validator newSchemaValidator() {
+        Validator schemaValidator = schema.newValidator();
+        try {
+            // A report must not make the validator fetch anything
+            schemaValidator.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            schemaValidator.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        } catch (SAXException e) {
+            System.out.println("Validator does not support restricting external access - "+e.getMessage());
+        }
+        return schemaValidator;
+    }
+
+    private XMLReader newXmlReader() {
+        try {
+            XMLReader xmlReader = parserFactory.newSAXParser().getXMLReader();
+            // Old reports point at the jasperreport DTD on the web, it is not needed for a well-formedness check
+            xmlReader.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            xmlReader.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            xmlReader.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            return xmlReader;
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException("No XML parser available - "+e.getMessage(), e);
+        }
+    }
+
+    public static class Result {
+        private final List<String> errors = new ArrayList<>();
+        private final List<String> warnings = new ArrayList<>();
+
+        public boolean isValid() {
+            return errors.isEmpty();
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public List<String> getWarnings() {
+            return warnings;
+        }
+    }
+
+    // Stops at the first real error, a report with one error is already invalid
+    private static class FirstErrorHandler implements ErrorHandler {
+        @Override
+        public void warning(SAXParseException e) {
+        }
+
+        @Override
+        public void error(SAXParseException e) throws SAXParseException {
+            if (e.getMessage() != null && e.getMessage().startsWith(UNDECLARED_WILDCARD_ELEMENT)) return;
+            throw e;
+        }
+
+        @Override
+        public void fatalError(SAXParseException e) throws SAXParseException {
+            throw e;
+        }
+    }
+}
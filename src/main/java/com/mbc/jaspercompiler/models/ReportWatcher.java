@@ -0,0 +1,151 @@
+package com.mbc.jaspercompiler.models;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Keeps the JVM and the report compiler warm and recompiles reports as soon as they are saved.
+// Bursts of events for the same file (editors often write a file several times) are collapsed
+// until the file has been quiet for debounceMillis.
+public class ReportWatcher implements AutoCloseable {
+    private final JasperCompilerAPI jasperCompilerAPI;
+    private final Path watchDirectory;
+    private final boolean recursiveMode;
+    private final long debounceMillis;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private final Map<Path, Long> pendingReports = new HashMap<>();
+    private WatchService watchService;
+    private boolean rescanRequired;
+    private volatile boolean running;
+
+    public ReportWatcher(JasperCompilerAPI jasperCompilerAPI, long debounceMillis) {
+        this.jasperCompilerAPI = jasperCompilerAPI;
+        this.watchDirectory = Path.of(jasperCompilerAPI.getJrxmlFilesDirectory()).toAbsolutePath();
+        this.recursiveMode = jasperCompilerAPI.isRecursiveMode();
+        this.debounceMillis = debounceMillis;
+    }
+
+    // Blocks until close() is called from another thread
+    public void run() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        running = true;
+        if (recursiveMode) {
+            registerTree(watchDirectory);
+        } else {
+            register(watchDirectory);
+        }
+        System.out.println("Watching "+watchDirectory+" for report changes...");
+        try {
+            while (running) {
+                WatchKey watchKey = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                if (watchKey != null) {
+                    handleEvents(watchKey);
+                }
+                compileQuietReports();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // close() was called while waiting for events
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (watchService == null) return;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close watch service... - "+e.getMessage());
+        }
+    }
+
+    private void handleEvents(WatchKey watchKey) throws IOException {
+        Path directory = watchedDirectories.get(watchKey);
+        for (WatchEvent<?> watchEvent : watchKey.pollEvents()) {
+            if (watchEvent.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rescanRequired = true;
+                continue;
+            }
+            if (directory == null) continue;
+            Path changedPath = directory.resolve((Path) watchEvent.context());
+            if (recursiveMode && watchEvent.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changedPath)) {
+                // Reports copied in together with a new folder do not raise their own events
+                registerTree(changedPath);
+                try (Stream<Path> reports = Files.walk(changedPath)) {
+                    reports.filter(this::isJrxmlFile).forEach(this::markPending);
+                }
+            } else if (isJrxmlFile(changedPath)) {
+                markPending(changedPath);
+            }
+        }
+        if (!watchKey.reset()) {
+            watchedDirectories.remove(watchKey);
+        }
+    }
+
+    private void markPending(Path sourceFile) {
+        pendingReports.put(sourceFile, System.currentTimeMillis());
+    }
+
+    private void compileQuietReports() {
+        if (rescanRequired) {
+            // Events were lost, let the incremental manifest work out what changed
+            rescanRequired = false;
+            pendingReports.clear();
+            jasperCompilerAPI.compileAndExportReport();
+            return;
+        }
+        long quietSince = System.currentTimeMillis() - debounceMillis;
+        List<Path> quietReports = new ArrayList<>();
+        Iterator<Map.Entry<Path, Long>> pendingIterator = pendingReports.entrySet().iterator();
+        while (pendingIterator.hasNext()) {
+            Map.Entry<Path, Long> pendingReport = pendingIterator.next();
+            if (pendingReport.getValue() <= quietSince) {
+                if (Files.isRegularFile(pendingReport.getKey())) quietReports.add(pendingReport.getKey());
+                pendingIterator.remove();
+            }
+        }
+        if (!quietReports.isEmpty()) {
+            jasperCompilerAPI.compileReports(quietReports);
+        }
+    }
+
+    private void registerTree(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                register(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void register(Path directory) throws IOException {
+        WatchKey watchKey = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedDirectories.put(watchKey, directory);
+    }
+
+    private boolean isJrxmlFile(Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(".jrxml");
+    }
+}
@@ -0,0 +1,157 @@
+package com.mbc.jaspercompiler.models;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// One rewrite applied by ReportRewriter, written as a spec on the command line or in a rules file:
+//   [element@]attribute=value             sets the attribute, only on that element when one is given
+//   [element@]attribute/regex/=value      only where the current value matches the regex as a whole, value may use its groups ($1, \$ for a $)
+//   expression:literal=>replacement       replaces a literal in the text of every expression element
+// Attribute values are matched and written unescaped, the rewriter takes care of the XML escaping.
+public class RewriteRule {
+    private static final Pattern ATTRIBUTE_SPEC = Pattern.compile("(?:([\\w.:-]+)@)?([\\w.:-]+)(?:/(.*?)/)?=(.*)", Pattern.DOTALL);
+    private static final String EXPRESSION_PREFIX = "expression:";
+
+    private final String spec;
+    private final byte[] elementName;
+    private final byte[] attributeName;
+    private final Pattern valuePattern;
+    private final String value;
+    private final String literal;
+    private final String replacement;
+    // Encoded once per charset, almost every report uses the same one
+    private final Map<Charset, byte[]> encodedValues = new ConcurrentHashMap<>();
+    private final Map<Charset, byte[][]> encodedLiterals = new ConcurrentHashMap<>();
+
+    private RewriteRule(String spec, String elementName, String attributeName, Pattern valuePattern, String value, String literal, String replacement) {
+        this.spec = spec;
+        this.elementName = elementName == null ? null : elementName.getBytes(StandardCharsets.US_ASCII);
+        this.attributeName = attributeName == null ? null : attributeName.getBytes(StandardCharsets.US_ASCII);
+        this.valuePattern = valuePattern;
+        this.value = value;
+        this.literal = literal;
+        this.replacement = replacement;
+    }
+
+    // elementName and valuePattern may be null, they then match every element and every value
+    public static RewriteRule attribute(String elementName, String attributeName, String valuePattern, String value) {
+        String spec = (elementName == null ? "" : elementName+"@")+attributeName+(valuePattern == null ? "" : "/"+valuePattern+"/")+"="+value;
+        Pattern compiledPattern = valuePattern == null ? null : Pattern.compile(valuePattern);
+        if (compiledPattern != null) checkGroupReferences(compiledPattern, value, spec);
+        return new RewriteRule(spec, elementName, attributeName, compiledPattern, value, null, null);
+    }
+
+    public static RewriteRule expressionLiteral(String literal, String replacement) {
+        if (literal.isEmpty()) throw new IllegalArgumentException("The literal of an expression rule must not be empty");
+        return new RewriteRule(EXPRESSION_PREFIX+literal+"=>"+replacement, null, null, null, null, literal, replacement);
+    }
+
+    public static RewriteRule parse(String spec) {
+        if (spec.startsWith(EXPRESSION_PREFIX)) {
+            int arrow = spec.indexOf("=>", EXPRESSION_PREFIX.length());
+            if (arrow < 0) throw new IllegalArgumentException("Expected expression:literal=>replacement - "+spec);
+            return expressionLiteral(spec.substring(EXPRESSION_PREFIX.length(), arrow), spec.substring(arrow + 2));
+        }
+        Matcher matcher = ATTRIBUTE_SPEC.matcher(spec);
+        if (!matcher.matches()) throw new IllegalArgumentException("Expected [element@]attribute[/regex/]=value - "+spec);
+        try {
+            return attribute(matcher.group(1), matcher.group(2), matcher.group(3), matcher.group(4));
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid regex in rewrite rule "+spec+" - "+e.getDescription());
+        }
+    }
+
+    public String getSpec() {
+        return spec;
+    }
+
+    boolean isExpressionLiteral() {
+        return literal != null;
+    }
+
+    boolean hasValuePattern() {
+        return valuePattern != null;
+    }
+
+    boolean matchesAttribute(byte[] content, int nameStart, int nameEnd, int elementStart, int elementEnd) {
+        return regionEquals(content, nameStart, nameEnd, attributeName)
+                && (elementName == null || regionEquals(content, localNameStart(content, elementStart, elementEnd), elementEnd, elementName));
+    }
+
+    // The escaped new value in the charset of the report, null when the rule does not apply to the current value
+    byte[] newAttributeValue(String currentValue, Charset charset) {
+        if (valuePattern == null) {
+            return encodedValues.computeIfAbsent(charset, key -> escapeAttributeValue(value).getBytes(key));
+        }
+        Matcher matcher = valuePattern.matcher(currentValue);
+        if (!matcher.matches()) return null;
+        return escapeAttributeValue(matcher.replaceFirst(value)).getBytes(charset);
+    }
+
+    // Literal and replacement as they are written in plain element text, and as they are written in CDATA
+    byte[][] encodedLiteral(Charset charset) {
+        return encodedLiterals.computeIfAbsent(charset, key -> new byte[][] {
+                escapeText(literal).getBytes(key), escapeText(replacement).getBytes(key), literal.getBytes(key), replacement.getBytes(key)});
+    }
+
+    // Matcher.replaceFirst would only reject a bad $ reference on the first report with a matching value, in the middle of the run
+    private static void checkGroupReferences(Pattern valuePattern, String value, String spec) {
+        int groupCount = valuePattern.matcher("").groupCount();
+        for (int i = 0; i < value.length(); i++) {
+            char current = value.charAt(i);
+            if (current == '\\') {
+                if (++i == value.length()) throw new IllegalArgumentException("Value ends with an escaping \\ in rewrite rule "+spec);
+            } else if (current == '$') {
+                if (++i == value.length()) throw new IllegalArgumentException("Value ends with $, use \\$ for a literal $ in rewrite rule "+spec);
+                char reference = value.charAt(i);
+                if (reference == '{') {
+                    int nameEnd = value.indexOf('}', i);
+                    if (nameEnd < 0) throw new IllegalArgumentException("Unclosed ${ in rewrite rule "+spec);
+                    String groupName = value.substring(i + 1, nameEnd);
+                    if (!valuePattern.pattern().contains("(?<"+groupName+">")) {
+                        throw new IllegalArgumentException("No group named "+groupName+" in the regex of rewrite rule "+spec);
+                    }
+                    i = nameEnd;
+                } else if (reference < '0' || reference > '9') {
+                    throw new IllegalArgumentException("Invalid group reference $"+reference+", use \\$ for a literal $ in rewrite rule "+spec);
+                } else if (reference - '0' > groupCount) {
+                    // Further digits are only taken while they still name a group, so the first one decides
+                    throw new IllegalArgumentException("No group "+reference+" in the regex of rewrite rule "+spec+", it has "+groupCount);
+                }
+            }
+        }
+    }
+
+    private static int localNameStart(byte[] content, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (content[i] == ':') return i + 1;
+        }
+        return start;
+    }
+
+    private static boolean regionEquals(byte[] content, int start, int end, byte[] expected) {
+        if (end - start != expected.length) return false;
+        for (int i = 0; i < expected.length; i++) {
+            if (content[start + i] != expected[i]) return false;
+        }
+        return true;
+    }
+
+    private static String escapeAttributeValue(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;").replace("'", "&apos;");
+    }
+
+    private static String escapeText(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,10 @@
+package com.mbc.jaspercompiler.models;
+
+public enum ScheduleOrder {
+    // As the walk finds them, compiling starts before the walk is done. The default, the other orders are opt-in
+    DISCOVERY,
+    // Longest expected compile first (CompileHistory), so no big report starts last and stretches the run
+    LONGEST_FIRST,
+    // Reports changed since the last run first, then longest first, for the fastest feedback on what was edited
+    RECENT_FIRST
+}
@@ -0,0 +1,173 @@
+package com.mbc.jaspercompiler.models;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+// Splits a report set over compile servers (CompileServer) and collects their streamed results.
+// The workers need to see the reports under the same paths, on one machine or through a shared file system.
+// A cancel is passed on to the workers, their runs end like a cancelled local one once their running compiles are done.
+// The connections are not just dropped, disconnect blocks while a shard thread is reading the streamed results.
+class ShardCoordinator {
+    private static final long CANCEL_CHECK_MILLIS = 200;
+    private final List<String> workerUrls;
+    private final ShardStrategy shardStrategy;
+    private final String accessToken;
+    private final CompileControl compileControl;
+    // Tells the requests of this run apart from those of other coordinators on a shared worker
+    private final String runId = UUID.randomUUID().toString();
+
+    ShardCoordinator(List<String> workerUrls, ShardStrategy shardStrategy, String accessToken, CompileControl compileControl) {
+        this.workerUrls = workerUrls;
+        this.shardStrategy = shardStrategy;
+        this.accessToken = accessToken;
+        this.compileControl = compileControl;
+    }
+
+    // Every result is handed to resultSink as soon as a worker reports it, from one thread per worker.
+    // Returns the reports that got no result because their worker failed.
+    List<ReportCompileJob> run(List<ReportCompileJob> compileJobs, ShardResultSink resultSink) {
+        List<List<ReportCompileJob>> shards = split(compileJobs, workerUrls.size(), shardStrategy);
+        List<ReportCompileJob> unfinishedJobs = new ArrayList<>();
+        List<Thread> shardThreads = new ArrayList<>();
+        List<String> usedWorkerUrls = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            List<ReportCompileJob> shard = shards.get(i);
+            String workerUrl = workerUrls.get(i);
+            if (shard.isEmpty()) continue;
+            Thread shardThread = new Thread(() -> {
+                List<ReportCompileJob> unfinishedShardJobs = compileShard(workerUrl, shard, resultSink);
+                synchronized (unfinishedJobs) {
+                    unfinishedJobs.addAll(unfinishedShardJobs);
+                }
+            }, "jasper-shard-"+(i + 1));
+            shardThread.setDaemon(true);
+            shardThreads.add(shardThread);
+            usedWorkerUrls.add(workerUrl);
+            shardThread.start();
+        }
+        try {
+            boolean cancelSent = false;
+            for (Thread shardThread : shardThreads) {
+                while (shardThread.isAlive()) {
+                    if (!cancelSent && compileControl.isCancelled()) {
+                        usedWorkerUrls.forEach(this::cancelShard);
+                        cancelSent = true;
+                    }
+                    shardThread.join(CANCEL_CHECK_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            System.out.println("Shard coordinator interrupted...");
+            shardThreads.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+        }
+        return unfinishedJobs;
+    }
+
+    static List<List<ReportCompileJob>> split(List<ReportCompileJob> compileJobs, int shardCount, ShardStrategy shardStrategy) {
+        List<List<ReportCompileJob>> shards = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) shards.add(new ArrayList<>());
+        if (shardStrategy == ShardStrategy.HASH) {
+            for (ReportCompileJob compileJob : compileJobs) {
+                CRC32 crc = new CRC32();
+                crc.update(compileJob.getSourceFile().toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+                shards.get((int) (crc.getValue() % shardCount)).add(compileJob);
+            }
+            return shards;
+        }
+        Map<ReportCompileJob, Long> reportSizes = new HashMap<>();
+        for (ReportCompileJob compileJob : compileJobs) {
+            long reportSize;
+            try {
+                reportSize = Files.size(compileJob.getSourceFile());
+            } catch (IOException e) {
+                reportSize = 0;
+            }
+            reportSizes.put(compileJob, reportSize);
+        }
+        List<ReportCompileJob> largestFirst = new ArrayList<>(compileJobs);
+        largestFirst.sort(Comparator.comparing(reportSizes::get, Comparator.reverseOrder()));
+        long[] shardSizes = new long[shardCount];
+        PriorityQueue<Integer> lightestShards = new PriorityQueue<>(Comparator.<Integer>comparingLong(shard -> shardSizes[shard]).thenComparing(shard -> shard));
+        for (int i = 0; i < shardCount; i++) lightestShards.add(i);
+        for (ReportCompileJob compileJob : largestFirst) {
+            int shard = lightestShards.poll();
+            shards.get(shard).add(compileJob);
+            shardSizes[shard] += reportSizes.get(compileJob);
+            lightestShards.add(shard);
+        }
+        return shards;
+    }
+
+    private List<ReportCompileJob> compileShard(String workerUrl, List<ReportCompileJob> shard, ShardResultSink resultSink) {
+        Map<String, ReportCompileJob> pendingJobs = new LinkedHashMap<>();
+        StringBuilder requestBody = new StringBuilder();
+        for (ReportCompileJob compileJob : shard) {
+            String sourceFile = compileJob.getSourceFile().toAbsolutePath().toString();
+            pendingJobs.put(sourceFile, compileJob);
+            requestBody.append(sourceFile).append('\n');
+        }
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(workerUrl+"/compile?run="+runId).openConnection();
+            connection.setRequestMethod("POST");
+            if (accessToken != null) connection.setRequestProperty(CompileServer.ACCESS_TOKEN_HEADER, accessToken);
+            connection.setDoOutput(true);
+            byte[] body = requestBody.toString().getBytes(StandardCharsets.UTF_8);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream requestStream = connection.getOutputStream()) {
+                requestStream.write(body);
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // STATUS <tab> path <tab> millis [<tab> error], the SUMMARY line is not needed
+                    String[] columns = line.split("\t", 4);
+                    if (columns.length < 3 || columns[0].equals("SUMMARY")) continue;
+                    ReportCompileJob compileJob = pendingJobs.remove(columns[1]);
+                    if (compileJob == null) continue;
+                    resultSink.accept(compileJob, ReportCompileStatus.valueOf(columns[0]), Long.parseLong(columns[2]),
+                            columns.length > 3 ? columns[3] : null);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Shard worker "+workerUrl+" failed, "+pendingJobs.size()+" reports left... - "+e.getMessage());
+        }
+        return new ArrayList<>(pendingJobs.values());
+    }
+
+    private void cancelShard(String workerUrl) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(workerUrl+"/cancel?run="+runId).openConnection();
+            connection.setRequestMethod("POST");
+            if (accessToken != null) connection.setRequestProperty(CompileServer.ACCESS_TOKEN_HEADER, accessToken);
+            connection.setConnectTimeout(1000);
+            connection.setReadTimeout(5000);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(0);
+            connection.getOutputStream().close();
+            connection.getResponseCode();
+            connection.disconnect();
+        } catch (IOException e) {
+            System.out.println("Failed to cancel the shard on "+workerUrl+" - "+e.getMessage());
+        }
+    }
+
+    interface ShardResultSink {
+        void accept(ReportCompileJob compileJob, ReportCompileStatus status, long durationMillis, String errorMessage);
+    }
+}
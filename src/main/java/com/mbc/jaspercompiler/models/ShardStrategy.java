@@ -0,0 +1,8 @@
+package com.mbc.jaspercompiler.models;
+
+public enum ShardStrategy {
+    // The same report always goes to the same worker while the worker count stays the same
+    HASH,
+    // Largest reports first, each to the worker with the fewest bytes so far
+    SIZE_BALANCED
+}
@@ -2,10 +2,14 @@ module com.mbc.jaspercompiler {
     requires javafx.controls;
     requires javafx.fxml;
     requires jasperreports;
+    requires jdk.httpserver;
+    requires java.xml;
+    requires java.management;
 
 
     opens com.mbc.jaspercompiler to javafx.fxml;
     exports com.mbc.jaspercompiler;
     exports com.mbc.jaspercompiler.controllers;
+    exports com.mbc.jaspercompiler.models;
     opens com.mbc.jaspercompiler.controllers to javafx.fxml;
 }
\ No newline at end of file
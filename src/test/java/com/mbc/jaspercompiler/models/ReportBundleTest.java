@@ -0,0 +1,265 @@
+package com.mbc.jaspercompiler.models;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReportBundleTest {
+    @TempDir
+    Path tempDirectory;
+
+    private static byte[] content(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Random bytes do not deflate, the stored length stays predictable
+    private static byte[] randomContent(int length, long seed) {
+        byte[] content = new byte[length];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    private static ReportBundleFormat.IndexLocation readHeader(Path bundleFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(bundleFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(ReportBundleFormat.HEADER_LENGTH);
+            channel.read(header, 0);
+            header.flip();
+            return ReportBundleFormat.readHeader(header);
+        }
+    }
+
+    @Test
+    void writesAndReadsBackEveryEntry() throws IOException {
+        Path bundleFile = tempDirectory.resolve("reports.bundle");
+        for (boolean compress : new boolean[] {false, true}) {
+            try (ReportBundleWriter writer = new ReportBundleWriter(bundleFile, false, false, compress)) {
+                writer.put("a.jasper", content("first report, first report, first report"));
+                writer.put("sub/b.jasper", content("second report"));
+            }
+            try (ReportBundleReader reader = ReportBundleReader.open(bundleFile)) {
+                assertEquals(Set.of("a.jasper", "sub/b.jasper"), reader.getNames());
+                assertArrayEquals(content("first report, first report, first report"), reader.readBytes("a.jasper"));
+                assertArrayEquals(content("second report"), reader.readBytes("sub/b.jasper"));
+                assertTrue(reader.verify("a.jasper"));
+                assertTrue(reader.verify("sub/b.jasper"));
+                assertEquals(compress, reader.getEntry("a.jasper").isCompressed());
+                assertEquals(content("second report").length, reader.getEntry("sub/b.jasper").getLength());
+                assertThrows(IOException.class, () -> reader.readBytes("missing.jasper"));
+            }
+        }
+        assertFalse(Files.exists(bundleFile.resolveSibling("reports.bundle.tmp")));
+    }
+
+    @Test
+    void stampIdentifiesTheContent() throws IOException {
+        Path bundleFile = tempDirectory.resolve("reports.bundle");
+        long stamp;
+        try (ReportBundleWriter writer = new ReportBundleWriter(bundleFile, false, false, false)) {
+            stamp = writer.put("a.jasper", content("report"));
+            assertEquals(stamp, writer.put("b.jasper", content("report")));
+        }
+        ReportBundleWriter writer = new ReportBundleWriter(bundleFile, true, false, false);
+        assertEquals(stamp, writer.getStamp("a.jasper"));
+        assertEquals(-1, writer.getStamp("missing.jasper"));
+        writer.close();
+    }
+
+    @Test
+    void updateAppendsChangedEntriesAndRewritesTheHeader() throws IOException {
+        Path bundleFile = tempDirectory.resolve("reports.bundle");
+        try (ReportBundleWriter writer = new ReportBundleWriter(bundleFile, false, false, false)) {
+            writer.put("a.jasper", content("report a"));
+            writer.put("b.jasper", content("report b"));
+        }
+        long sizeBefore = Files.size(bundleFile);
+        ReportBundleFormat.IndexLocation indexBefore = readHeader(bundleFile);
+        long offsetOfA;
+        try (ReportBundleReader reader = ReportBundleReader.open(bundleFile)) {
+            offsetOfA = reader.getEntry("a.jasper").getOffset();
+        }
+
+        try (ReportBundleWriter writer = new ReportBundleWriter(bundleFile, true, true, false)) {
+            writer.keep("a.jasper");
+            writer.put("b.jasper", content("report b, changed"));
+            writer.put("c.jasper", content("report c"));
+        }
+
+        ReportBundleFormat.IndexLocation indexAfter = readHeader(bundleFile);
+        // The old data and index stay where they were, the new entries and index come after them
+        assertTrue(indexAfter.offset >= sizeBefore, "index at "+indexAfter.offset+", old bundle was "+sizeBefore+" bytes");
+        assertEquals(3, indexAfter.entryCount);
+        assertEquals(2, indexBefore.entryCount);
+        assertEquals(indexAfter.offset + indexAfter.length, Files.size(bundleFile));
+        try (ReportBundleReader reader = ReportBundleReader.open(bundleFile)) {
+            assertEquals(offsetOfA, reader.getEntry("a.jasper").getOffset());
+            assertTrue(reader.getEntry("b.jasper").getOffset() >= sizeBefore);
+            assertArrayEquals(content("report a"), reader.readBytes("a.jasper"));
+            assertArrayEquals(content("report b, changed"), reader.readBytes("b.jasper"));
+            assertArrayEquals(content("report c"), reader.readBytes("c.jasper"));
+            for (String name : reader.getNames()) assertTrue(reader.verify(name), name);
+        }
+    }
+
+    @Test
+    void updateWithoutChangesLeavesTheBundleAlone() throws IOException {
+        Path bundleFile = tempDirectory.resolve("reports.bundle");
+        try (ReportBundleWriter writer = new ReportBundleWriter(bundleFile, false, false, false)) {
+            writer.put("a.jasper", content("report a"));
+        }
+        byte[] before = Files.readAllBytes(bundleFile);
+        try (ReportBundleWriter writer = new ReportBundleWriter(bundleFile, true, true, false)) {
+            writer.keep("a.jasper");
+        }
+        assertArrayEquals(before, Files.readAllBytes(bundleFile));
+    }
+
+    @Test
+    void updateRemovesUnmarkedEntries() throws IOException {
+        Path bundleFile = tempDirectory.resolve("reports.bundle");
+        try (ReportBundleWriter writer = new ReportBundleWriter(bundleFile, false, false, false)) {
+            writer.put("a.jasper", content("report a"));
+            writer.put("deleted.jasper", content("deleted report"));
+        }
+        try (ReportBundleWriter writer = new ReportBundleWriter(bundleFile, true, true, false)) {
+            writer.keep("a.jasper");
+        }
+        try (ReportBundleReader reader = ReportBundleReader.open(bundleFile)) {
+            assertEquals(Set.of("a.jasper"), reader.getNames());
+            assertTrue(reader.verify("a.jasper"));
+        }
+    }
+
+    @Test
+    void newBundleKeepsTheLastGoodEntryOfKeptReports() throws IOException {
+        Path bundleFile = tempDirectory.resolve("reports.bundle");
+        try (ReportBundleWriter writer = new ReportBundleWriter(bundleFile, false, false, false)) {
+            writer.put("a.jasper", content("report a"));
+            writer.put("failed.jasper", content("last good compile"));
+            writer.putDuplicate("failed-copy.jasper", "failed.jasper");
+            writer.put("removed.jasper", content("removed report"));
+        }
+        try (ReportBundleWriter writer = new ReportBundleWriter(bundleFile, false, true, false)) {
+            writer.put("a.jasper", content("report a, changed"));
+            writer.keep("failed.jasper");
+            writer.keep("failed-copy.jasper");
+        }
+        try (ReportBundleReader reader = ReportBundleReader.open(bundleFile)) {
+            assertEquals(Set.of("a.jasper", "failed.jasper", "failed-copy.jasper"), reader.getNames());
+            assertArrayEquals(content("report a, changed"), reader.readBytes("a.jasper"));
+            assertArrayEquals(content("last good compile"), reader.readBytes("failed.jasper"));
+            assertEquals(reader.getEntry("failed.jasper").getOffset(), reader.getEntry("failed-copy.jasper").getOffset());
+            for (String name : reader.getNames()) assertTrue(reader.verify(name), name);
+        }
+    }
+
+    @Test
+    void compactionKeepsDuplicatesOnSharedData() throws IOException {
+        Path bundleFile = tempDirectory.resolve("reports.bundle");
+        byte[] bigContent = randomContent(1024 * 1024, 1);
+        try (ReportBundleWriter writer = new ReportBundleWriter(bundleFile, false, false, false)) {
+            writer.put("removed.jasper", randomContent(3 * 1024 * 1024, 2));
+            writer.put("big.jasper", bigContent);
+            writer.putDuplicate("duplicate.jasper", "big.jasper");
+            writer.put("small.jasper", content("small report"));
+        }
+        long sizeBefore = Files.size(bundleFile);
+
+        // Dropping the 3 MB entry leaves more garbage than live data, the update compacts
+        try (ReportBundleWriter writer = new ReportBundleWriter(bundleFile, true, true, false)) {
+            writer.keep("big.jasper");
+            writer.keep("duplicate.jasper");
+            writer.put("small.jasper", content("small report, changed"));
+            writer.putDuplicate("small-copy.jasper", "small.jasper");
+        }
+
+        // Only the big entry once, the small ones and the index are left
+        assertTrue(Files.size(bundleFile) < bigContent.length + 4096, "bundle was not compacted, "+Files.size(bundleFile)+" of "+sizeBefore+" bytes");
+        assertFalse(Files.exists(bundleFile.resolveSibling("reports.bundle.tmp")));
+        try (ReportBundleReader reader = ReportBundleReader.open(bundleFile)) {
+            assertEquals(Set.of("big.jasper", "duplicate.jasper", "small.jasper", "small-copy.jasper"), reader.getNames());
+            assertEquals(reader.getEntry("big.jasper").getOffset(), reader.getEntry("duplicate.jasper").getOffset());
+            assertEquals(reader.getEntry("small.jasper").getOffset(), reader.getEntry("small-copy.jasper").getOffset());
+            assertArrayEquals(bigContent, reader.readBytes("duplicate.jasper"));
+            assertArrayEquals(content("small report, changed"), reader.readBytes("small-copy.jasper"));
+            for (String name : reader.getNames()) assertTrue(reader.verify(name), name);
+        }
+    }
+
+    @Test
+    void putDuplicateOfUnknownEntryFails() throws IOException {
+        Path bundleFile = tempDirectory.resolve("reports.bundle");
+        ReportBundleWriter writer = new ReportBundleWriter(bundleFile, false, false, false);
+        assertThrows(IOException.class, () -> writer.putDuplicate("copy.jasper", "missing.jasper"));
+        writer.close();
+    }
+
+    @Test
+    void readerRejectsTruncatedBundle() throws IOException {
+        Path bundleFile = tempDirectory.resolve("reports.bundle");
+        try (ReportBundleWriter writer = new ReportBundleWriter(bundleFile, false, false, false)) {
+            writer.put("a.jasper", content("report a"));
+        }
+        byte[] bundle = Files.readAllBytes(bundleFile);
+
+        Files.write(bundleFile, Arrays.copyOf(bundle, ReportBundleFormat.HEADER_LENGTH - 4));
+        assertThrows(IOException.class, () -> ReportBundleReader.open(bundleFile));
+
+        // The header is complete, the index it points at is not
+        Files.write(bundleFile, Arrays.copyOf(bundle, bundle.length - 8));
+        assertThrows(IOException.class, () -> ReportBundleReader.open(bundleFile));
+    }
+
+    @Test
+    void readerRejectsCorruptHeader() throws IOException {
+        Path bundleFile = tempDirectory.resolve("reports.bundle");
+        try (ReportBundleWriter writer = new ReportBundleWriter(bundleFile, false, false, false)) {
+            writer.put("a.jasper", content("report a"));
+        }
+        byte[] bundle = Files.readAllBytes(bundleFile);
+
+        byte[] wrongMagic = bundle.clone();
+        wrongMagic[0] ^= 0x7F;
+        Files.write(bundleFile, wrongMagic);
+        assertThrows(IOException.class, () -> ReportBundleReader.open(bundleFile));
+
+        byte[] wrongVersion = bundle.clone();
+        ByteBuffer.wrap(wrongVersion).putInt(4, ReportBundleFormat.VERSION + 1);
+        Files.write(bundleFile, wrongVersion);
+        assertThrows(IOException.class, () -> ReportBundleReader.open(bundleFile));
+
+        byte[] wrongIndexOffset = bundle.clone();
+        ByteBuffer.wrap(wrongIndexOffset).putLong(8, bundle.length + 100L);
+        Files.write(bundleFile, wrongIndexOffset);
+        assertThrows(IOException.class, () -> ReportBundleReader.open(bundleFile));
+    }
+
+    @Test
+    void updateOfCorruptBundleWritesANewOne() throws IOException {
+        Path bundleFile = tempDirectory.resolve("reports.bundle");
+        Files.write(bundleFile, content("not a bundle"));
+        try (ReportBundleWriter writer = new ReportBundleWriter(bundleFile, true, true, false)) {
+            assertEquals(-1, writer.getStamp("a.jasper"));
+            writer.put("a.jasper", content("report a"));
+        }
+        try (ReportBundleReader reader = ReportBundleReader.open(bundleFile)) {
+            assertEquals(Set.of("a.jasper"), reader.getNames());
+            assertTrue(reader.verify("a.jasper"));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.mbc.jaspercompiler.models;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReportRewriterTest {
+
+    private static String rewrite(String jrxml, String... specs) {
+        return rewrite(new ReportRewriter(rules(specs)), jrxml);
+    }
+
+    private static String rewrite(ReportRewriter reportRewriter, String jrxml) {
+        return new String(reportRewriter.rewrite(jrxml.getBytes(StandardCharsets.UTF_8)).toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static List<RewriteRule> rules(String... specs) {
+        return Stream.of(specs).map(RewriteRule::parse).collect(Collectors.toList());
+    }
+
+    @Test
+    void rewritesAttributeInStartTags() {
+        assertEquals("<font fontName=\"mbc\" size=\"10\"/>", rewrite("<font fontName=\"Arial\" size=\"10\"/>", "fontName=mbc"));
+    }
+
+    @Test
+    void leavesCommentsCdataAndProcessingInstructionsAlone() {
+        String jrxml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!-- <font fontName=\"Arial\"/> -->\n"
+                + "<?custom fontName=\"Arial\"?>\n"
+                + "<text><![CDATA[<font fontName=\"Arial\"/>]]></text>\n"
+                + "<font fontName=\"Arial\"/>\n";
+        String expected = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!-- <font fontName=\"Arial\"/> -->\n"
+                + "<?custom fontName=\"Arial\"?>\n"
+                + "<text><![CDATA[<font fontName=\"Arial\"/>]]></text>\n"
+                + "<font fontName=\"mbc\"/>\n";
+        assertEquals(expected, rewrite(jrxml, "fontName=mbc"));
+    }
+
+    @Test
+    void unchangedReportIsNotCopied() {
+        byte[] content = "<font fontName=\"mbc\"/>".getBytes(StandardCharsets.UTF_8);
+        ReportRewriter.Result result = new ReportRewriter(rules("fontName=mbc")).rewrite(content);
+        assertFalse(result.isChanged());
+        assertEquals(0, result.getReplacements());
+        assertArrayEquals(content, result.toByteArray());
+    }
+
+    @Test
+    void rewritesUtf16WithByteOrderMark() {
+        String jrxml = "<?xml version=\"1.0\" encoding=\"UTF-16\"?>\n<font fontName=\"Arial\"/>";
+        byte[] content = jrxml.getBytes(StandardCharsets.UTF_16);
+        ReportRewriter.Result result = new ReportRewriter(rules("fontName=mbc")).rewrite(content);
+        assertTrue(result.isChanged());
+        byte[] rewritten = result.toByteArray();
+        assertEquals((byte) 0xFE, rewritten[0]);
+        assertEquals((byte) 0xFF, rewritten[1]);
+        assertEquals(jrxml.replace("Arial", "mbc"), new String(rewritten, StandardCharsets.UTF_16));
+    }
+
+    @Test
+    void rewritesUtf16WithoutByteOrderMark() {
+        String jrxml = "<?xml version=\"1.0\" encoding=\"UTF-16LE\"?>\n<font fontName=\"Arial\"/>";
+        ReportRewriter.Result result = new ReportRewriter(rules("fontName=mbc")).rewrite(jrxml.getBytes(StandardCharsets.UTF_16LE));
+        assertTrue(result.isChanged());
+        assertArrayEquals(jrxml.replace("Arial", "mbc").getBytes(StandardCharsets.UTF_16LE), result.toByteArray());
+    }
+
+    @Test
+    void elementScopedRuleOnlyRewritesThatElement() {
+        String jrxml = "<jr:font fontName=\"Arial\"/><style fontName=\"Arial\"/>";
+        assertEquals("<jr:font fontName=\"mbc\"/><style fontName=\"Arial\"/>", rewrite(jrxml, "font@fontName=mbc"));
+    }
+
+    @Test
+    void regexRuleUsesGroupsOfTheCurrentValue() {
+        String jrxml = "<font fontName=\"Arial Bold\"/><font fontName=\"Verdana\"/>";
+        assertEquals("<font fontName=\"mbc Bold\"/><font fontName=\"Verdana\"/>", rewrite(jrxml, "fontName/Arial (.*)/=mbc $1"));
+    }
+
+    @Test
+    void regexRuleMatchesAndWritesUnescapedValues() {
+        String jrxml = "<font fontName=\"A &amp; B\"/>";
+        assertEquals("<font fontName=\"B &amp; A\"/>", rewrite(jrxml, "fontName/(\\w) & (\\w)/=$2 & $1"));
+    }
+
+    @Test
+    void firstRuleThatAppliesWins() {
+        String jrxml = "<font fontName=\"Arial\"/><font fontName=\"Verdana\"/>";
+        ReportRewriter reportRewriter = new ReportRewriter(rules("fontName/Arial/=first", "fontName=second", "fontName=third"));
+        assertEquals("<font fontName=\"first\"/><font fontName=\"second\"/>", rewrite(reportRewriter, jrxml));
+        assertEquals(Map.of("fontName/Arial/=first", 1L, "fontName=second", 1L, "fontName=third", 0L), reportRewriter.getRuleHits());
+    }
+
+    @Test
+    void expressionLiteralIsEscapedInTextAndRawInCdata() {
+        String jrxml = "<textFieldExpression>$F{a} &lt; 1</textFieldExpression>"
+                + "<textFieldExpression><![CDATA[$F{a} < 1]]></textFieldExpression>";
+        String expected = "<textFieldExpression>$F{a} &lt;= 1</textFieldExpression>"
+                + "<textFieldExpression><![CDATA[$F{a} <= 1]]></textFieldExpression>";
+        assertEquals(expected, rewrite(jrxml, "expression:< 1=><= 1"));
+    }
+
+    @Test
+    void expressionLiteralOnlyInExpressionElements() {
+        String jrxml = "<text>old</text><expression>old</expression><printWhenExpression><![CDATA[old]]></printWhenExpression>";
+        String expected = "<text>old</text><expression>new</expression><printWhenExpression><![CDATA[new]]></printWhenExpression>";
+        assertEquals(expected, rewrite(jrxml, "expression:old=>new"));
+    }
+}
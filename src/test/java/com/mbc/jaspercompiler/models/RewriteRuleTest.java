@@ -0,0 +1,62 @@
+package com.mbc.jaspercompiler.models;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RewriteRuleTest {
+
+    @Test
+    void parsesAttributeRules() {
+        assertEquals("fontName=mbc", RewriteRule.parse("fontName=mbc").getSpec());
+        assertEquals("font@fontName=mbc", RewriteRule.parse("font@fontName=mbc").getSpec());
+        RewriteRule regexRule = RewriteRule.parse("font@fontName/Arial (.*)/=mbc $1");
+        assertTrue(regexRule.hasValuePattern());
+        assertFalse(regexRule.isExpressionLiteral());
+    }
+
+    @Test
+    void parsesExpressionRules() {
+        RewriteRule rule = RewriteRule.parse("expression:a=>b=>c");
+        assertTrue(rule.isExpressionLiteral());
+        assertEquals("expression:a=>b=>c", rule.getSpec());
+    }
+
+    @Test
+    void rejectsMalformedSpecs() {
+        assertThrows(IllegalArgumentException.class, () -> RewriteRule.parse("fontName"));
+        assertThrows(IllegalArgumentException.class, () -> RewriteRule.parse("=mbc"));
+        assertThrows(IllegalArgumentException.class, () -> RewriteRule.parse("expression:literal"));
+        assertThrows(IllegalArgumentException.class, () -> RewriteRule.parse("expression:=>replacement"));
+    }
+
+    @Test
+    void rejectsInvalidRegex() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> RewriteRule.parse("fontName/Arial(/=mbc"));
+        assertTrue(e.getMessage().contains("Invalid regex"), e.getMessage());
+    }
+
+    @Test
+    void rejectsGroupReferencesTheRegexDoesNotHave() {
+        assertThrows(IllegalArgumentException.class, () -> RewriteRule.parse("fontName/Arial/=mbc $1"));
+        assertThrows(IllegalArgumentException.class, () -> RewriteRule.parse("fontName/(Arial)/=mbc $2"));
+        assertThrows(IllegalArgumentException.class, () -> RewriteRule.parse("fontName/(Arial)/=mbc ${name}"));
+        assertThrows(IllegalArgumentException.class, () -> RewriteRule.parse("fontName/(Arial)/=mbc ${name"));
+        assertThrows(IllegalArgumentException.class, () -> RewriteRule.parse("fontName/(Arial)/=mbc $"));
+        assertThrows(IllegalArgumentException.class, () -> RewriteRule.parse("fontName/(Arial)/=mbc $x"));
+        assertThrows(IllegalArgumentException.class, () -> RewriteRule.parse("fontName/(Arial)/=mbc \\"));
+    }
+
+    @Test
+    void acceptsValidGroupReferences() {
+        RewriteRule.parse("fontName/(Arial) (.*)/=$2 $1");
+        RewriteRule.parse("fontName/(?<family>Arial)/=mbc ${family}");
+        RewriteRule.parse("fontName/(Arial)/=$10");
+        RewriteRule.parse("fontName/(Arial)/=\\$1 costs \\$");
+        // Without a regex the value is taken as it is
+        RewriteRule.parse("fontName=$1");
+    }
+}